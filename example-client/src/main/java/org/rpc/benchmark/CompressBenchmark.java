@@ -0,0 +1,84 @@
+package org.rpc.benchmark;
+
+import org.rpc.Hello;
+import org.rpc.compress.Compress;
+import org.rpc.compress.gzip.GzipCompress;
+import org.rpc.compress.lz4.Lz4Compress;
+import org.rpc.remoting.dto.RpcResponse;
+import org.rpc.serialize.Serializer;
+import org.rpc.serialize.hessian.HessianSerializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 对比 gzip 和 lz4 的压缩率与吞吐量。
+ * 负载是 hessian 序列化后的 RpcResponse，和线上真实的消息体接近。
+ * 直接运行 main 方法即可，结果打印到标准输出
+ */
+public class CompressBenchmark {
+    private static final int[] PAYLOAD_SIZES = {1024, 16 * 1024, 128 * 1024, 512 * 1024, 2 * 1024 * 1024};
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        Compress[] compresses = {new GzipCompress(), new Lz4Compress()};
+        System.out.printf("%-8s %10s %12s %8s %14s %16s%n",
+                "codec", "payload", "compressed", "ratio", "compress MB/s", "decompress MB/s");
+        for (int size : PAYLOAD_SIZES) {
+            byte[] payload = buildPayload(size);
+            for (Compress compress : compresses) {
+                byte[] compressed = compress.compress(payload);
+                if (!Arrays.equals(payload, compress.decompress(compressed))) {
+                    throw new IllegalStateException(compress.getClass().getSimpleName() + " round trip failed");
+                }
+                double compressSpeed = measure(() -> compress.compress(payload), payload.length);
+                double decompressSpeed = measure(() -> compress.decompress(compressed), payload.length);
+                System.out.printf("%-8s %10d %12d %8.2f %14.1f %16.1f%n",
+                        compress.getClass().getSimpleName().replace("Compress", "").toLowerCase(),
+                        payload.length, compressed.length, (double) payload.length / compressed.length,
+                        compressSpeed, decompressSpeed);
+            }
+        }
+    }
+
+    /**
+     * 构造大约 size 字节的序列化响应
+     */
+    private static byte[] buildPayload(int size) {
+        Random random = new Random(size);
+        Serializer serializer = new HessianSerializer();
+        List<Hello> hellos = new ArrayList<>();
+        byte[] bytes = new byte[0];
+        while (bytes.length < size) {
+            int batch = Math.max(4, hellos.size() / 4);
+            for (int i = 0; i < batch; i++) {
+                hellos.add(new Hello("message-" + random.nextInt(100_000),
+                        "description of order " + random.nextLong() + " status " + (random.nextBoolean() ? "PAID" : "SHIPPED")));
+            }
+            bytes = serializer.serialize(RpcResponse.success(hellos));
+        }
+        return bytes;
+    }
+
+    /**
+     * 先预热，再在固定时间内反复执行，返回 MB/s
+     */
+    private static double measure(Runnable task, int bytesPerRun) {
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < deadline) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            task.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        return (double) bytesPerRun * runs / (1024 * 1024) / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,76 @@
+package org.rpc.benchmark;
+
+import org.rpc.Hello;
+import org.rpc.HelloService;
+import org.rpc.config.RpcServiceConfig;
+import org.rpc.porxy.RpcClientProxy;
+import org.rpc.remoting.dto.RpcRequest;
+import org.rpc.remoting.dto.RpcResponse;
+import org.rpc.remoting.transport.RpcRequestTransport;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 对比 JDK 动态代理和 ASM 生成的实现类的客户端调用开销。
+ * 传输层直接返回已完成的响应，测到的只是代理分发、生成请求和检查响应的开销。
+ * 直接运行 main 方法即可，结果打印到标准输出
+ */
+public class ProxyBenchmark {
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        RpcRequestTransport loopback = new LoopbackTransport();
+        RpcClientProxy rpcClientProxy = new RpcClientProxy(loopback, new RpcServiceConfig());
+        HelloService jdkProxy = rpcClientProxy.getProxy(HelloService.class);
+        HelloService stub = rpcClientProxy.getStub(HelloService.class);
+        Hello hello = new Hello("111", "222");
+        System.out.printf("%-10s %5s %14s %10s%n", "proxy", "round", "ops/s", "ns/op");
+        for (int round = 1; round <= ROUNDS; round++) {
+            print("jdk", round, measure(jdkProxy, hello));
+            print("stub", round, measure(stub, hello));
+        }
+    }
+
+    private static void print(String name, int round, double opsPerSecond) {
+        System.out.printf("%-10s %5d %14.0f %10.1f%n", name, round, opsPerSecond, 1e9 / opsPerSecond);
+    }
+
+    /**
+     * 先预热，再在固定时间内反复调用，返回每秒调用次数
+     */
+    private static double measure(HelloService helloService, Hello hello) {
+        long sink = 0;
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < deadline) {
+            sink += helloService.hello(hello).length();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                sink += helloService.hello(hello).length();
+            }
+            runs += 1000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        if (sink == 0) {
+            throw new IllegalStateException("unexpected empty result");
+        }
+        return runs / (elapsed / 1e9);
+    }
+
+    /**
+     * 不走网络，直接返回成功的响应
+     */
+    private static final class LoopbackTransport implements RpcRequestTransport {
+        private final CompletableFuture<RpcResponse<Object>> response = CompletableFuture.completedFuture(RpcResponse.success("hello"));
+
+        @Override
+        public Object sendRpcRequest(RpcRequest rpcRequest) {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.rpc.benchmark;
+
+import org.rpc.Hello;
+import org.rpc.HelloService;
+import org.rpc.provider.MethodInvoker;
+
+import java.lang.reflect.Method;
+
+/**
+ * 对比服务端调用服务方法的几种方式的开销：
+ * 每次按名字查找方法再反射调用（原来的做法）、缓存 Method 之后反射调用、注册时生成的 {@link MethodInvoker}，
+ * 以及直接调用作为下限。
+ * 直接运行 main 方法即可，结果打印到标准输出
+ */
+public class InvokerBenchmark {
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Throwable {
+        HelloService service = new EchoHelloService();
+        Class<?>[] paramTypes = {Hello.class};
+        Object[] parameters = {new Hello("111", "222")};
+        Method cachedMethod = service.getClass().getMethod("hello", paramTypes);
+        MethodInvoker invoker = MethodInvoker.find(MethodInvoker.forService(service).get("hello"), paramTypes);
+        Call lookupAndInvoke = () -> service.getClass().getMethod("hello", paramTypes).invoke(service, parameters);
+        Call reflect = () -> cachedMethod.invoke(service, parameters);
+        Call generated = () -> invoker.invoke(service, parameters);
+        Call direct = () -> service.hello((Hello) parameters[0]);
+        System.out.printf("%-18s %5s %14s %10s%n", "invoker", "round", "ops/s", "ns/op");
+        for (int round = 1; round <= ROUNDS; round++) {
+            print("lookup+reflect", round, measure(lookupAndInvoke));
+            print("cached reflect", round, measure(reflect));
+            print("method invoker", round, measure(generated));
+            print("direct call", round, measure(direct));
+        }
+    }
+
+    private static void print(String name, int round, double opsPerSecond) {
+        System.out.printf("%-18s %5d %14.0f %10.1f%n", name, round, opsPerSecond, 1e9 / opsPerSecond);
+    }
+
+    /**
+     * 先预热，再在固定时间内反复调用，返回每秒调用次数
+     */
+    private static double measure(Call call) throws Throwable {
+        long sink = 0;
+        long deadline = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < deadline) {
+            sink += ((String) call.invoke()).length();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                sink += ((String) call.invoke()).length();
+            }
+            runs += 1000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        if (sink == 0) {
+            throw new IllegalStateException("unexpected empty result");
+        }
+        return runs / (elapsed / 1e9);
+    }
+
+    private interface Call {
+        Object invoke() throws Throwable;
+    }
+
+    /**
+     * 不打日志的实现，测到的只是调用本身的开销
+     */
+    public static final class EchoHelloService implements HelloService {
+        @Override
+        public String hello(Hello hello) {
+            return hello.getMessage();
+        }
+    }
+}
@@ -10,7 +10,9 @@ public enum CompressTypeEnum {
     /*
     压缩类型的枚举类
      */
-    GZIP((byte) 0x01, "gzip");
+    NONE((byte) 0x00, "none"),
+    GZIP((byte) 0x01, "gzip"),
+    LZ4((byte) 0x02, "lz4");
 
     private final byte code;
     private final String name;
@@ -0,0 +1,26 @@
+package org.rpc.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+
+@AllArgsConstructor
+@Getter
+public enum DispatchTypeEnum {
+    /*
+    服务端执行请求的方式
+     */
+    //直接在 I/O 线程上执行，没有线程切换，只适合很快、不会阻塞的方法
+    IO("io"),
+    //所有服务共用的业务线程池，一个连接固定在一个线程上，同一个连接上的请求按顺序执行
+    SHARED("shared"),
+    //共用的工作线程池，同一个连接上的请求并发执行，响应按完成的顺序写回
+    PARALLEL("parallel"),
+    //服务独占的有界线程池，阻塞的服务不会拖慢其他服务
+    DEDICATED("dedicated"),
+    //每个请求一个虚拟线程，需要 JDK 21 及以上，否则退回到共用的线程池
+    VIRTUAL("virtual");
+
+    private final String name;
+
+}
@@ -10,7 +10,34 @@ public enum RpcConfigEnum {
         RPC的配置
      */
     RPC_CONFIG_PATH("rpc.properties"),
-    ZK_ADDRESS("rpc.zookeeper.address");
+    ZK_ADDRESS("rpc.zookeeper.address"),
+    GZIP_LEVEL("rpc.compress.gzip.level"),
+    COMPRESS_MAX_DECOMPRESSED_LENGTH("rpc.compress.max.decompressed.length"),
+    PROTOCOL_VERSION("rpc.protocol.version"),
+    FLUSH_CONSOLIDATION("rpc.flush.consolidation"),
+    FLUSH_MAX_BATCH("rpc.flush.max.batch"),
+    FLUSH_DELAY_MICROS("rpc.flush.delay.micros"),
+    CLIENT_CONNECTIONS("rpc.client.connections"),
+    CLIENT_CHANNEL_SELECTOR("rpc.client.channel.selector"),
+    CLIENT_TIMEOUT("rpc.client.timeout"),
+    CLIENT_MAX_PENDING("rpc.client.max.pending"),
+    CLIENT_PENDING_WAIT("rpc.client.pending.wait"),
+    CLIENT_WRITE_BUFFER_LOW("rpc.client.write.buffer.low"),
+    CLIENT_WRITE_BUFFER_HIGH("rpc.client.write.buffer.high"),
+    CLIENT_PROXY("rpc.client.proxy"),
+    CLIENT_STREAM_WINDOW("rpc.client.stream.window"),
+    CLIENT_HEDGE_BUDGET("rpc.client.hedge.budget"),
+    CLIENT_OVERLOAD_RETRIES("rpc.client.overload.retries"),
+    SERVER_ADMISSION_MAX_INFLIGHT("rpc.server.admission.max.inflight"),
+    SERVER_ADMISSION_MAX_QUEUED("rpc.server.admission.max.queued"),
+    SERVER_ADMISSION_TARGET_DELAY("rpc.server.admission.target.delay"),
+    SERVER_ADMISSION_INTERVAL("rpc.server.admission.interval"),
+    TRANSPORT("rpc.transport"),
+    TRANSPORT_EPOLL_MODE("rpc.transport.epoll.mode"),
+    TRANSPORT_REUSE_PORT("rpc.transport.reuseport"),
+    TRANSPORT_REUSE_PORT_BINDS("rpc.transport.reuseport.binds"),
+    TRANSPORT_QUICKACK("rpc.transport.quickack"),
+    TRANSPORT_BUSY_POLL("rpc.transport.busy.poll");
 
     private final String propertyValue;
 
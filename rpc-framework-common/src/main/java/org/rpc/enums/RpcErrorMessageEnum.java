@@ -19,7 +19,11 @@ public enum RpcErrorMessageEnum {
     SERVICE_INVOCATION_FAILURE("服务调用失败"),
     SERVICE_CAN_NOT_BE_FOUND("没有找到指定的服务"),
     SERVICE_NOT_IMPLEMENT_ANY_INTERFACE("注册的服务没有实现任何接口"),
-    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配");
+    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配"),
+    REQUEST_TIMEOUT("请求超时"),
+    CHANNEL_CLOSED("连接已关闭，请求没有返回"),
+    TOO_MANY_PENDING_REQUESTS("在途请求过多，请求被拒绝"),
+    CHANNEL_NOT_WRITABLE("连接的发送缓冲区已满，请求被拒绝");
 
     private final String message;
 
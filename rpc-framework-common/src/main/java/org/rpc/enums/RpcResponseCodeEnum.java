@@ -16,7 +16,9 @@ public enum RpcResponseCodeEnum {
         RPC的状态码
      */
     SUCCESS(200, "The remote call is successful"),
-    FAIL(500, "The remote call is fail");
+    FAIL(500, "The remote call is fail"),
+    //服务端过载，请求在反序列化之前就被拒绝了，没有执行过，可以换一个服务提供者重试
+    OVERLOADED(503, "The server is overloaded");
     private final int code;
 
     private final String message;
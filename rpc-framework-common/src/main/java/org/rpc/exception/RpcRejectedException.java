@@ -0,0 +1,12 @@
+package org.rpc.exception;
+
+import org.rpc.enums.RpcErrorMessageEnum;
+
+/*
+    请求在发出之前就被拒绝（在途请求过多、连接不可写等），请求没有到达服务端，调用方可以稍后重试
+ */
+public class RpcRejectedException extends RpcException {
+    public RpcRejectedException(RpcErrorMessageEnum rpcErrorMessageEnum, String detail) {
+        super(rpcErrorMessageEnum, detail);
+    }
+}
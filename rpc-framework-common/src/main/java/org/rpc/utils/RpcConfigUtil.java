@@ -0,0 +1,65 @@
+package org.rpc.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.RpcConfigEnum;
+
+import java.util.Properties;
+
+/**
+ * 读取 rpc.properties 中的配置项。
+ * 配置文件只在第一次使用时读取一次，之后的读取都走缓存
+ */
+@Slf4j
+public final class RpcConfigUtil {
+
+    private RpcConfigUtil() {
+    }
+
+    public static String getString(RpcConfigEnum rpcConfigEnum, String defaultValue) {
+        String value = PropertiesHolder.PROPERTIES.getProperty(rpcConfigEnum.getPropertyValue());
+        return StringUtil.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(RpcConfigEnum rpcConfigEnum, int defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("illegal value [{}] for [{}], use default [{}]", value, rpcConfigEnum.getPropertyValue(), defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(RpcConfigEnum rpcConfigEnum, long defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("illegal value [{}] for [{}], use default [{}]", value, rpcConfigEnum.getPropertyValue(), defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(RpcConfigEnum rpcConfigEnum, boolean defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * 延迟加载，第一次读取配置时才去读文件
+     */
+    private static final class PropertiesHolder {
+        private static final Properties PROPERTIES = load();
+
+        private static Properties load() {
+            Properties properties = PropertiesFileUtil.readPropertiesFile(RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+            return properties == null ? new Properties() : properties;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.rpc.annotation;
+
+import org.rpc.remoting.constants.RpcConstants;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法级别的调用配置，放在 {@link RpcReference#methods()} 里，按方法名匹配（同名的重载方法共用一份配置）
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface RpcMethod {
+
+    /**
+     * 方法名
+     */
+    String name();
+
+    /**
+     * 调用超时时间（毫秒），0 表示使用 {@link RpcReference#timeout()}
+     */
+    long timeout() default 0;
+
+    /**
+     * 结果缓存时间（毫秒），大于 0 时在客户端按参数缓存这个方法的结果，只适合结果短时间内不变的幂等查询方法
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * 开启结果缓存时最多缓存多少个不同参数的结果
+     */
+    int cacheSize() default RpcConstants.DEFAULT_CACHE_SIZE;
+
+    /**
+     * 是否开启对冲请求：超过 {@link #hedgeDelay()} 还没有响应时，向另一个服务提供者再发一次，先返回的结果为准。
+     * 请求会被执行两次，只适合幂等的方法
+     */
+    boolean hedge() default false;
+
+    /**
+     * 发出对冲请求之前等待的时间（毫秒），0 表示使用这个方法最近响应时间的 p95
+     */
+    long hedgeDelay() default 0;
+
+    /**
+     * 作为顺序 key 的参数下标，-1 表示不要求顺序。
+     * 服务端用不按连接顺序的派发策略时，这个参数相等（按 hashCode）的调用仍然按发到服务端的顺序一个接一个地执行；
+     * 参数必须有按值计算的 hashCode，比如字符串、数字，或者覆盖了 equals/hashCode 的类；
+     * 数组和没有覆盖 hashCode 的类每次调用的 key 都不同，起不到排序的作用，创建代理时会直接报错。
+     * 客户端和服务提供者之间有多个连接（rpc.client.connections）时，同一个 key 的调用总是走同一个连接；
+     * 连接正在建立或者重连时发出的调用也按调用的顺序发送。
+     * 顺序只在一个服务提供者上成立，因为过载换到另一个服务提供者重试的调用、对冲请求不保证顺序
+     */
+    int orderBy() default -1;
+
+}
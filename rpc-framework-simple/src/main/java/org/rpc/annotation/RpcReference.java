@@ -1,6 +1,9 @@
 package org.rpc.annotation;
 
 
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+
 import java.lang.annotation.*;
 
 /***
@@ -48,4 +51,24 @@ public @interface RpcReference {
      */
     String group() default "";
 
+    /**
+     * 请求消息体的压缩方式，默认 gzip
+     */
+    CompressTypeEnum compress() default CompressTypeEnum.GZIP;
+
+    /**
+     * 压缩阈值，请求消息体小于这个长度时不压缩
+     */
+    int compressThreshold() default RpcConstants.DEFAULT_COMPRESS_THRESHOLD;
+
+    /**
+     * 调用超时时间（毫秒），0 表示使用 rpc.client.timeout 配置的全局超时时间
+     */
+    long timeout() default 0;
+
+    /**
+     * 方法级别的配置，覆盖上面的服务级别配置
+     */
+    RpcMethod[] methods() default {};
+
 }
@@ -1,6 +1,10 @@
 package org.rpc.annotation;
 
 
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.DispatchTypeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+
 import java.lang.annotation.*;
 
 /**
@@ -25,4 +29,32 @@ public @interface RpcService {
      */
     String group() default "";
 
+    /**
+     * Compression used for response bodies, default value is gzip
+     */
+    CompressTypeEnum compress() default CompressTypeEnum.GZIP;
+
+    /**
+     * Response bodies smaller than this many bytes are sent uncompressed
+     */
+    int compressThreshold() default RpcConstants.DEFAULT_COMPRESS_THRESHOLD;
+
+    /**
+     * How requests of this service are executed on the server, default value is the shared business pool,
+     * where requests of one connection run one after another. With {@link DispatchTypeEnum#PARALLEL},
+     * {@link DispatchTypeEnum#DEDICATED} and {@link DispatchTypeEnum#VIRTUAL} they run concurrently and
+     * only calls with the same {@link RpcMethod#orderBy()} key keep their order
+     */
+    DispatchTypeEnum dispatch() default DispatchTypeEnum.SHARED;
+
+    /**
+     * Threads of the dedicated pool, 0 means the number of cpus. Only used by {@link DispatchTypeEnum#DEDICATED}
+     */
+    int dispatchThreads() default 0;
+
+    /**
+     * Queue capacity of the dedicated pool, requests beyond it fail immediately. Only used by {@link DispatchTypeEnum#DEDICATED}
+     */
+    int dispatchQueueSize() default RpcConstants.DEFAULT_DISPATCH_QUEUE_SIZE;
+
 }
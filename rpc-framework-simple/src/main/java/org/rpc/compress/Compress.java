@@ -1,6 +1,6 @@
 package org.rpc.compress;
 
-
+import io.netty.buffer.ByteBuf;
 import org.rpc.extension.SPI;
 
 /*
@@ -14,4 +14,38 @@ public interface Compress {
 
 
     byte[] decompress(byte[] bytes);
+
+    /**
+     * 实现是否直接操作字节数组。返回 true 时编解码器为消息体分配堆内缓冲区，
+     * 否则池化的直接内存没有底层数组，每条消息都要先拷贝成 byte[] 才能压缩或解压
+     */
+    default boolean preferHeapBuffer() {
+        return false;
+    }
+
+    /**
+     * 压缩 in 中所有可读的字节，结果直接写入 out，省去中间的 byte[]。
+     * 默认实现退化为基于字节数组的压缩。
+     *
+     * @param in  待压缩的数据，读完后 readerIndex 会移动到 writerIndex
+     * @param out 写入的目标缓冲区
+     */
+    default void compress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(compress(bytes));
+    }
+
+    /**
+     * 解压 in 中所有可读的字节，结果直接写入 out，省去中间的 byte[]。
+     * 默认实现退化为基于字节数组的解压。
+     *
+     * @param in  待解压的数据，通常是帧的一个切片
+     * @param out 写入的目标缓冲区
+     */
+    default void decompress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(decompress(bytes));
+    }
 }
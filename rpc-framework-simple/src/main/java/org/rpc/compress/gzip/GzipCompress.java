@@ -1,36 +1,79 @@
 package org.rpc.compress.gzip;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.rpc.compress.Compress;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.utils.RpcConfigUtil;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * 使用Gzip实现网络传输的压缩和解压缩
+ * <p>
+ * 不再为每条消息创建 GZIPOutputStream/GZIPInputStream：每个线程复用一个 Deflater/Inflater，用完 reset，
+ * 避免每次都初始化和释放 zlib 的本地内存。gzip 的头和尾由这里自己读写，格式和 GZIPOutputStream 完全一致。
+ * 压缩级别通过 rpc.properties 中的 rpc.compress.gzip.level 配置（1~9，默认 6）
+ * </p>
  */
-
 public class GzipCompress implements Compress {
 
-
     private static final int BUFFER_SIZE = 1024 * 4;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int HEADER_LENGTH = 10;
+    private static final int TRAILER_LENGTH = 8;
+    /**
+     * 和 GZIPOutputStream 写出的头一致：magic，deflate，无 flag，mtime=0，xfl=0，os=0
+     */
+    private static final byte[] HEADER = {(byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final int level;
+    /**
+     * 解压后的最大长度
+     */
+    private final int maxDecompressedLength;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final ThreadLocal<CRC32> crcs = ThreadLocal.withInitial(CRC32::new);
+
+    public GzipCompress() {
+        this(RpcConfigUtil.getInt(RpcConfigEnum.GZIP_LEVEL, Deflater.DEFAULT_COMPRESSION));
+    }
+
+    public GzipCompress(int level) {
+        this(level, RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_MAX_DECOMPRESSED_LENGTH, RpcConstants.DEFAULT_MAX_DECOMPRESSED_LENGTH));
+    }
+
+    public GzipCompress(int level, int maxDecompressedLength) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("illegal gzip level: " + level);
+        }
+        if (maxDecompressedLength <= 0) {
+            throw new IllegalArgumentException("illegal max decompressed length: " + maxDecompressedLength);
+        }
+        this.level = level;
+        this.maxDecompressedLength = maxDecompressedLength;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+    }
 
     @Override
     public byte[] compress(byte[] bytes) {
         if (bytes == null) {
             throw new NullPointerException("bytes is null");
         }
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPOutputStream gzip = new GZIPOutputStream(out)) {
-            gzip.write(bytes);
-            gzip.flush();
-            gzip.finish();
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("gzip compress error", e);
-        }
+        ByteBuf out = Unpooled.buffer(maxCompressedLength(bytes.length));
+        compress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
     }
 
     @Override
@@ -38,16 +81,125 @@ public class GzipCompress implements Compress {
         if (bytes == null) {
             throw new NullPointerException("bytes is null");
         }
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int n;
-            while ((n = gunzip.read(buffer)) > -1) {
-                out.write(buffer, 0, n);
+        ByteBuf out = Unpooled.buffer();
+        decompress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        int length = in.readableBytes();
+        ByteBuffer input = in.nioBuffer();
+        CRC32 crc = crcs.get();
+        crc.reset();
+        crc.update(input.duplicate());
+        Deflater deflater = deflaters.get();
+        try {
+            // 按输入长度一次性预留足够的空间，避免输出缓冲区反复扩容
+            out.ensureWritable(maxCompressedLength(length));
+            out.writeBytes(HEADER);
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!out.isWritable()) {
+                    out.ensureWritable(BUFFER_SIZE);
+                }
+                int n = deflater.deflate(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+                out.writerIndex(out.writerIndex() + n);
+            }
+            out.writeIntLE((int) crc.getValue());
+            out.writeIntLE(length);
+            in.skipBytes(length);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        int end = in.readerIndex() + in.readableBytes();
+        int bodyStart = in.readerIndex() + readHeader(in);
+        int trailerStart = end - TRAILER_LENGTH;
+        if (trailerStart < bodyStart) {
+            throw new RuntimeException("gzip decompress error", new DataFormatException("truncated gzip data"));
+        }
+        long expectedCrc = in.getUnsignedIntLE(trailerStart);
+        int expectedLength = in.getIntLE(trailerStart + 4);
+        // 尾部的原始长度来自对端，超过解压后的最大长度直接拒绝，不按它分配内存
+        if (expectedLength < 0 || expectedLength > maxDecompressedLength) {
+            throw new RuntimeException("gzip decompress error", new DataFormatException("illegal gzip length " + expectedLength));
+        }
+        int outStart = out.writerIndex();
+        Inflater inflater = inflaters.get();
+        try {
+            // 尾部记录了原始长度，直接按它分配输出空间
+            if (expectedLength > 0) {
+                out.ensureWritable(expectedLength);
             }
-            return out.toByteArray();
-        } catch (IOException e) {
+            inflater.setInput(in.nioBuffer(bodyStart, trailerStart - bodyStart));
+            while (!inflater.finished()) {
+                // 解压出的数据已经超过尾部记录的长度，不用等到最后校验，也不让输出继续增长
+                if (out.writerIndex() - outStart > expectedLength) {
+                    throw new DataFormatException("corrupt gzip trailer");
+                }
+                if (!out.isWritable()) {
+                    out.ensureWritable(BUFFER_SIZE);
+                }
+                int n = inflater.inflate(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+                out.writerIndex(out.writerIndex() + n);
+                // 空数据最后一次 inflate 输出 0 个字节，同时 finished 和 needsInput 都为 true，不算截断
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated gzip data");
+                }
+            }
+        } catch (DataFormatException e) {
             throw new RuntimeException("gzip decompress error", e);
+        } finally {
+            inflater.reset();
+        }
+        CRC32 crc = crcs.get();
+        crc.reset();
+        crc.update(out.nioBuffer(outStart, out.writerIndex() - outStart));
+        if (crc.getValue() != expectedCrc || out.writerIndex() - outStart != expectedLength) {
+            throw new RuntimeException("gzip decompress error", new DataFormatException("corrupt gzip trailer"));
         }
+        in.readerIndex(end);
+    }
+
+    /**
+     * 解析 gzip 头，返回头的长度，兼容带 FEXTRA/FNAME/FCOMMENT/FHCRC 的数据
+     */
+    private static int readHeader(ByteBuf in) {
+        int start = in.readerIndex();
+        int end = start + in.readableBytes();
+        if (in.readableBytes() < HEADER_LENGTH || in.getUnsignedShortLE(start) != GZIP_MAGIC
+                || in.getByte(start + 2) != Deflater.DEFLATED) {
+            throw new RuntimeException("gzip decompress error", new DataFormatException("not in gzip format"));
+        }
+        int flags = in.getUnsignedByte(start + 3);
+        int index = start + HEADER_LENGTH;
+        if ((flags & FEXTRA) != 0) {
+            index += 2 + in.getUnsignedShortLE(index);
+        }
+        if ((flags & FNAME) != 0) {
+            index = in.indexOf(index, end, (byte) 0) + 1;
+        }
+        if ((flags & FCOMMENT) != 0) {
+            index = in.indexOf(index, end, (byte) 0) + 1;
+        }
+        if ((flags & FHCRC) != 0) {
+            index += 2;
+        }
+        if (index <= start || index > end) {
+            throw new RuntimeException("gzip decompress error", new DataFormatException("corrupt gzip header"));
+        }
+        return index - start;
+    }
+
+    /**
+     * 压缩后长度的上界（参考 zlib 的 deflateBound），加上 gzip 的头和尾
+     */
+    private static int maxCompressedLength(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + HEADER_LENGTH + TRAILER_LENGTH;
     }
 }
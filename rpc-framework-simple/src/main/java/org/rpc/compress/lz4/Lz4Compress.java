@@ -0,0 +1,352 @@
+package org.rpc.compress.lz4;
+
+import io.netty.buffer.ByteBuf;
+import org.rpc.compress.Compress;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.utils.RpcConfigUtil;
+
+import java.util.Arrays;
+
+/**
+ * 纯 Java 实现的 LZ4 块压缩，不依赖本地库。
+ * 压缩率不如 gzip，但压缩和解压都快得多，适合带宽不是瓶颈、CPU 更紧张的场景。
+ * <pre>
+ *   +-------------------------+----------------------------------+
+ *   | 4B original length      |  LZ4 block (sequence ... sequence) |
+ *   +-------------------------+----------------------------------+
+ *   sequence: token(4bit literal length | 4bit match length) [literal length+] literals
+ *             2B offset(little endian) [match length+]
+ * </pre>
+ * 块格式与 LZ4 block format 一致，只是在前面加了原始长度，解压时可以一次分配好输出空间
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format</a>
+ */
+public class Lz4Compress implements Compress {
+
+    private static final int MIN_MATCH = 4;
+    /**
+     * 最后 5 个字节必须是字面量
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * 最后一个匹配必须在结尾 12 个字节之前开始
+     */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    /**
+     * 连续找不到匹配时逐渐加大步长，跳过不可压缩的数据
+     */
+    private static final int SKIP_STRENGTH = 6;
+    private static final int RUN_MASK = 15;
+    private static final int LENGTH_HEADER = 4;
+
+    /**
+     * 哈希表记录 4 字节序列最近一次出现的位置，每个线程一份，避免每次压缩都重新分配
+     */
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    /**
+     * 解压后的最大长度
+     */
+    private final int maxDecompressedLength;
+
+    public Lz4Compress() {
+        this(RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_MAX_DECOMPRESSED_LENGTH, RpcConstants.DEFAULT_MAX_DECOMPRESSED_LENGTH));
+    }
+
+    public Lz4Compress(int maxDecompressedLength) {
+        if (maxDecompressedLength <= 0) {
+            throw new IllegalArgumentException("illegal max decompressed length: " + maxDecompressedLength);
+        }
+        this.maxDecompressedLength = maxDecompressedLength;
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        byte[] dst = new byte[LENGTH_HEADER + maxCompressedLength(bytes.length)];
+        writeInt(dst, 0, bytes.length);
+        int len = compressBlock(bytes, 0, bytes.length, dst, LENGTH_HEADER);
+        return Arrays.copyOf(dst, LENGTH_HEADER + len);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        if (bytes.length < LENGTH_HEADER) {
+            throw new RuntimeException("lz4 decompress error, block is too short");
+        }
+        byte[] dst = new byte[readOriginalLength(bytes, 0)];
+        decompressBlock(bytes, LENGTH_HEADER, bytes.length, dst, 0, dst.length);
+        return dst;
+    }
+
+    /**
+     * 压缩和解压都直接操作字节数组，编解码器据此为消息体分配堆内缓冲区
+     */
+    @Override
+    public boolean preferHeapBuffer() {
+        return true;
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        int srcLen = in.readableBytes();
+        ByteBuf src = heapCopy(in);
+        ByteBuf dst = out.hasArray() ? null : out.alloc().heapBuffer(maxCompressedLength(srcLen));
+        try {
+            ByteBuf target = dst == null ? out : dst;
+            if (dst == null) {
+                out.ensureWritable(LENGTH_HEADER + maxCompressedLength(srcLen));
+            }
+            out.writeInt(srcLen);
+            // 直接压缩进目标的底层数组
+            int len = compressBlock(src.array(), src.arrayOffset() + src.readerIndex(), srcLen,
+                    target.array(), target.arrayOffset() + target.writerIndex());
+            target.writerIndex(target.writerIndex() + len);
+            if (dst != null) {
+                // 帧是直接内存时，压缩结果从池化的堆内缓冲区拷一次过去
+                out.writeBytes(dst);
+            }
+        } finally {
+            release(src, in);
+            if (dst != null) {
+                dst.release();
+            }
+        }
+        in.skipBytes(srcLen);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        if (in.readableBytes() < LENGTH_HEADER) {
+            throw new RuntimeException("lz4 decompress error, block is too short");
+        }
+        int originalLength = checkOriginalLength(in.readInt());
+        int srcLen = in.readableBytes();
+        ByteBuf src = heapCopy(in);
+        ByteBuf dst = out.hasArray() ? out : out.alloc().heapBuffer(originalLength);
+        try {
+            dst.ensureWritable(originalLength);
+            int srcOff = src.arrayOffset() + src.readerIndex();
+            int dstOff = dst.arrayOffset() + dst.writerIndex();
+            decompressBlock(src.array(), srcOff, srcOff + srcLen, dst.array(), dstOff, dstOff + originalLength);
+            dst.writerIndex(dst.writerIndex() + originalLength);
+            if (dst != out) {
+                out.writeBytes(dst);
+            }
+        } finally {
+            release(src, in);
+            if (dst != out) {
+                dst.release();
+            }
+        }
+        in.skipBytes(srcLen);
+    }
+
+    /**
+     * 有底层数组时直接返回 buf 本身；否则（从网络读到的帧通常在直接内存里）拷进一个池化的堆内缓冲区，
+     * 只拷贝可读的部分，不移动 buf 的 readerIndex
+     */
+    private static ByteBuf heapCopy(ByteBuf buf) {
+        if (buf.hasArray()) {
+            return buf;
+        }
+        ByteBuf copy = buf.alloc().heapBuffer(buf.readableBytes());
+        copy.writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        return copy;
+    }
+
+    private static void release(ByteBuf copy, ByteBuf original) {
+        if (copy != original) {
+            copy.release();
+        }
+    }
+
+    /**
+     * 最坏情况下（完全不可压缩）压缩后的长度
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * 压缩 src[srcOff, srcOff + srcLen) 写入 dst，调用方保证 dst 至少有 maxCompressedLength(srcLen) 的空间
+     *
+     * @return 压缩后的长度
+     */
+    static int compressBlock(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int op = dstOff;
+        if (srcLen > MF_LIMIT) {
+            int[] table = HASH_TABLE.get();
+            Arrays.fill(table, srcOff);
+            int mfLimit = srcEnd - MF_LIMIT;
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int ip = srcOff + 1;
+            while (ip < mfLimit) {
+                int sequence = readInt(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref >= ip || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    // 没有匹配，离上一个匹配越远步长越大
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+                // 向前扩展匹配
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                // 向后扩展匹配
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+                if (ip < mfLimit) {
+                    // 把匹配末尾附近的位置也放进哈希表，提高下一次命中的概率
+                    table[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        // 剩下的都作为字面量输出
+        int literalLen = srcEnd - anchor;
+        op = writeLiteralLength(dst, op, literalLen, 0);
+        System.arraycopy(src, anchor, dst, op, literalLen);
+        op += literalLen;
+        return op - dstOff;
+    }
+
+    /**
+     * 解压 src[srcOff, srcEnd) 写入 dst[dstOff, dstEnd)，输出必须刚好填满
+     */
+    static void decompressBlock(byte[] src, int srcOff, int srcEnd, byte[] dst, int dstOff, int dstEnd) {
+        int sp = srcOff;
+        int dp = dstOff;
+        while (sp < srcEnd) {
+            int token = src[sp++] & 0xFF;
+            int literalLen = token >>> 4;
+            if (literalLen == RUN_MASK) {
+                int b;
+                do {
+                    checkBounds(sp < srcEnd);
+                    b = src[sp++] & 0xFF;
+                    literalLen += b;
+                } while (b == 255);
+            }
+            checkBounds(sp + literalLen <= srcEnd && dp + literalLen <= dstEnd);
+            System.arraycopy(src, sp, dst, dp, literalLen);
+            sp += literalLen;
+            dp += literalLen;
+            if (sp == srcEnd) {
+                // 最后一个序列只有字面量
+                break;
+            }
+            checkBounds(sp + 2 <= srcEnd);
+            int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+            int matchLen = token & RUN_MASK;
+            if (matchLen == RUN_MASK) {
+                int b;
+                do {
+                    checkBounds(sp < srcEnd);
+                    b = src[sp++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            int ref = dp - offset;
+            checkBounds(offset > 0 && ref >= dstOff && dp + matchLen <= dstEnd);
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, dp, matchLen);
+            } else {
+                // 重叠拷贝，必须逐字节复制
+                for (int i = 0; i < matchLen; i++) {
+                    dst[dp + i] = dst[ref + i];
+                }
+            }
+            dp += matchLen;
+        }
+        checkBounds(dp == dstEnd);
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int literalLen, int offset, int matchLen, byte[] dst, int op) {
+        int tokenIndex = op;
+        op = writeLiteralLength(dst, op, literalLen, 0);
+        System.arraycopy(src, anchor, dst, op, literalLen);
+        op += literalLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        int len = matchLen - MIN_MATCH;
+        if (len >= RUN_MASK) {
+            dst[tokenIndex] |= RUN_MASK;
+            op = writeLengthBytes(dst, op, len - RUN_MASK);
+        } else {
+            dst[tokenIndex] |= len;
+        }
+        return op;
+    }
+
+    private static int writeLiteralLength(byte[] dst, int op, int literalLen, int matchBits) {
+        if (literalLen >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << 4 | matchBits);
+            return writeLengthBytes(dst, op, literalLen - RUN_MASK);
+        }
+        dst[op++] = (byte) (literalLen << 4 | matchBits);
+        return op;
+    }
+
+    private static int writeLengthBytes(byte[] dst, int op, int len) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | (buf[i + 1] & 0xFF) << 8 | (buf[i + 2] & 0xFF) << 16 | (buf[i + 3] & 0xFF) << 24;
+    }
+
+    private int readOriginalLength(byte[] buf, int i) {
+        return checkOriginalLength((buf[i] & 0xFF) << 24 | (buf[i + 1] & 0xFF) << 16 | (buf[i + 2] & 0xFF) << 8 | (buf[i + 3] & 0xFF));
+    }
+
+    /**
+     * 原始长度来自对端，分配输出空间之前先检查，几个字节的数据不能让这里分配上 GB 的内存
+     */
+    private int checkOriginalLength(int length) {
+        if (length < 0 || length > maxDecompressedLength) {
+            throw new RuntimeException("lz4 decompress error, illegal length " + length);
+        }
+        return length;
+    }
+
+    private static void writeInt(byte[] buf, int i, int value) {
+        buf[i] = (byte) (value >>> 24);
+        buf[i + 1] = (byte) (value >>> 16);
+        buf[i + 2] = (byte) (value >>> 8);
+        buf[i + 3] = (byte) value;
+    }
+
+    private static void checkBounds(boolean condition) {
+        if (!condition) {
+            throw new RuntimeException("lz4 decompress error, malformed block");
+        }
+    }
+}
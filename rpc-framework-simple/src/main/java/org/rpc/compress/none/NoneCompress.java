@@ -0,0 +1,37 @@
+package org.rpc.compress.none;
+
+import io.netty.buffer.ByteBuf;
+import org.rpc.compress.Compress;
+
+/**
+ * 不压缩，原样输出。
+ * 用于小消息体：这类消息压缩后往往比原来还大，还要白白花掉压缩的 CPU 时间
+ */
+public class NoneCompress implements Compress {
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        return bytes;
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        return bytes;
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+}
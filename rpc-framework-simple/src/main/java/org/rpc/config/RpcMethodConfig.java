@@ -0,0 +1,46 @@
+package org.rpc.config;
+
+import lombok.*;
+import org.rpc.remoting.constants.RpcConstants;
+
+/**
+ * 方法级别的调用配置，没有配置的项沿用 {@link RpcServiceConfig} 的配置
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+@ToString
+public class RpcMethodConfig {
+    /**
+     * 方法名
+     */
+    private String name;
+    /**
+     * 调用超时时间（毫秒），0 表示沿用服务的配置
+     */
+    private long timeout;
+    /**
+     * 结果缓存时间（毫秒），0 表示不缓存
+     */
+    private long cacheTtl;
+    /**
+     * 最多缓存多少个不同参数的结果
+     */
+    @Builder.Default
+    private int cacheSize = RpcConstants.DEFAULT_CACHE_SIZE;
+    /**
+     * 是否开启对冲请求
+     */
+    private boolean hedge;
+    /**
+     * 发出对冲请求之前等待的时间（毫秒），0 表示使用最近响应时间的 p95
+     */
+    private long hedgeDelay;
+    /**
+     * 作为顺序 key 的参数下标，-1 表示不要求顺序。这个参数必须有按值计算的 hashCode，见 {@link org.rpc.annotation.RpcMethod#orderBy()}
+     */
+    @Builder.Default
+    private int orderBy = -1;
+}
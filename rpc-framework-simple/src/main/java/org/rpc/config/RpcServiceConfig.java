@@ -2,6 +2,12 @@ package org.rpc.config;
 
 
 import lombok.*;
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.DispatchTypeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+
+import java.util.HashMap;
+import java.util.Map;
 
 
 @AllArgsConstructor//自动生成所有参数的构造方法
@@ -20,6 +26,42 @@ public class RpcServiceConfig {
      */
     private String group = "";
 
+    /**
+     * 消息体的压缩方式
+     */
+    @Builder.Default
+    private CompressTypeEnum compress = CompressTypeEnum.GZIP;
+    /**
+     * 压缩阈值，序列化后的消息体小于这个长度时不压缩
+     */
+    @Builder.Default
+    private int compressThreshold = RpcConstants.DEFAULT_COMPRESS_THRESHOLD;
+
+    /**
+     * 服务端执行请求的方式
+     */
+    @Builder.Default
+    private DispatchTypeEnum dispatch = DispatchTypeEnum.SHARED;
+    /**
+     * 服务独占线程池的线程数，0 表示 cpu 个数
+     */
+    private int dispatchThreads;
+    /**
+     * 服务独占线程池的队列长度
+     */
+    @Builder.Default
+    private int dispatchQueueSize = RpcConstants.DEFAULT_DISPATCH_QUEUE_SIZE;
+
+    /**
+     * 调用超时时间（毫秒），0 表示使用全局配置
+     */
+    private long timeout;
+    /**
+     * 方法级别的配置，key 是方法名
+     */
+    @Builder.Default
+    private Map<String, RpcMethodConfig> methods = new HashMap<>();
+
     /**
      * target service
      */
@@ -29,6 +71,14 @@ public class RpcServiceConfig {
         return this.getServiceName() + this.getGroup() + this.getVersion();
     }
 
+    /**
+     * 方法的超时时间，方法没有单独配置时使用服务的配置，0 表示两者都没有配置
+     */
+    public long getTimeout(String methodName) {
+        RpcMethodConfig methodConfig = methods.get(methodName);
+        return methodConfig != null && methodConfig.getTimeout() > 0 ? methodConfig.getTimeout() : timeout;
+    }
+
     public String getServiceName() {
         return this.service.getClass().getInterfaces()[0].getCanonicalName();
     }
@@ -4,6 +4,7 @@ import org.rpc.remoting.dto.RpcRequest;
 import org.rpc.utils.CollectionUtil;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * 负载均衡策略的抽象类
@@ -12,8 +13,15 @@ import java.util.List;
  * @createTime 2020年06月21日 07:44:00
  */
 public abstract class AbstractLoadBalance implements LoadBalance {
+    private static final Predicate<String> NONE_EXCLUDED = serviceAddress -> false;
+
     @Override
     public String selectServiceAddress(List<String> serviceAddresses, RpcRequest rpcRequest) {
+        return selectServiceAddress(serviceAddresses, rpcRequest, NONE_EXCLUDED);
+    }
+
+    @Override
+    public String selectServiceAddress(List<String> serviceAddresses, RpcRequest rpcRequest, Predicate<String> excluded) {
         /*
         根据多个提供服务的地址选择一个
          */
@@ -21,11 +29,17 @@ public abstract class AbstractLoadBalance implements LoadBalance {
             return null;
         }
         if (serviceAddresses.size() == 1) {
-            return serviceAddresses.get(0);
+            String serviceAddress = serviceAddresses.get(0);
+            return excluded.test(serviceAddress) ? null : serviceAddress;
         }
-        return doSelect(serviceAddresses, rpcRequest);
+        return doSelect(serviceAddresses, rpcRequest, excluded);
     }
 
-    protected abstract String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest);
+    /**
+     * 在原列表上跳过被排除的地址选择，不要复制列表
+     *
+     * @return 所有地址都被排除时返回 null
+     */
+    protected abstract String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest, Predicate<String> excluded);
 
 }
@@ -3,7 +3,9 @@ package org.rpc.loadbalance;
 import org.rpc.extension.SPI;
 import org.rpc.remoting.dto.RpcRequest;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * 负载均衡策略的接口
@@ -18,4 +20,22 @@ public interface LoadBalance {
      * @return target service address
      */
     String selectServiceAddress(List<String> serviceUrlList, RpcRequest rpcRequest);
+
+    /**
+     * 从现在提供服务的地址中选一个，跳过被排除的地址（对冲请求、过载重试时不再选已经用过的服务提供者）。
+     * serviceUrlList 是注册中心缓存共用的列表，实现按列表对象缓存选择器时，排除地址不应该换一个新的列表传进去，
+     * 否则每次排除都会让缓存失效。默认实现复制出剩下的地址再选，内置的策略都直接在原列表上跳过
+     *
+     * @param excluded 返回 true 的地址不会被选中
+     * @return 所有地址都被排除时返回 null
+     */
+    default String selectServiceAddress(List<String> serviceUrlList, RpcRequest rpcRequest, Predicate<String> excluded) {
+        List<String> candidates = new ArrayList<>(serviceUrlList.size());
+        for (String serviceUrl : serviceUrlList) {
+            if (!excluded.test(serviceUrl)) {
+                candidates.add(serviceUrl);
+            }
+        }
+        return candidates.isEmpty() ? null : selectServiceAddress(candidates, rpcRequest);
+    }
 }
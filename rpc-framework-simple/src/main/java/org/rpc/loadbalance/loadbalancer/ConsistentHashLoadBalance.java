@@ -8,9 +8,9 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 public class ConsistentHashLoadBalance extends AbstractLoadBalance {
     /*
@@ -20,7 +20,7 @@ public class ConsistentHashLoadBalance extends AbstractLoadBalance {
      */
     private final ConcurrentHashMap<String, ConsistentHashSelector> selectors = new ConcurrentHashMap<>();
     @Override
-    protected String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
+    protected String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest, Predicate<String> excluded) {
         int identityHashCode = System.identityHashCode(serviceAddresses); //求出对象唯一的hash码
         String rpcServiceName = rpcRequest.getRpcServiceName(); //根据服务找到对应的ServiceName
         ConsistentHashSelector selector = selectors.get(rpcServiceName);
@@ -30,7 +30,7 @@ public class ConsistentHashLoadBalance extends AbstractLoadBalance {
             selector = selectors.get(rpcServiceName);
         }
         //选择的key是由rpcServiceName +参数组成的
-        return selector.select(rpcServiceName + Arrays.stream(rpcRequest.getParameters()));
+        return selector.select(rpcServiceName + Arrays.stream(rpcRequest.getParameters()), excluded);
     }
     static class ConsistentHashSelector {
         private final TreeMap<Long, String> virtualInvokers; //虚拟节点
@@ -64,19 +64,25 @@ public class ConsistentHashLoadBalance extends AbstractLoadBalance {
         static long hash(byte[] digest, int idx) {
             return ((long) (digest[3 + idx * 4] & 255) << 24 | (long) (digest[2 + idx * 4] & 255) << 16 | (long) (digest[1 + idx * 4] & 255) << 8 | (long) (digest[idx * 4] & 255)) & 4294967295L;
         }
-        public  String select(String rpcServiceKey) {
+        public  String select(String rpcServiceKey, Predicate<String> excluded) {
             byte[] digest = md5(rpcServiceKey);
-            return selectForKey(hash(digest, 0));
+            return selectForKey(hash(digest, 0), excluded);
         }
-        public String selectForKey(long hashCode) {
+        public String selectForKey(long hashCode, Predicate<String> excluded) {
             //在环上找到比当前节点hashCode大或者相等的节点 所以要用TreeMap
-            Map.Entry<Long, String> entry = virtualInvokers.tailMap(hashCode, true).firstEntry();
-
-            if (entry == null) {
-                entry = virtualInvokers.firstEntry();
+            //被排除的节点不从环上删除，沿着环继续往后找，环和缓存的选择器都不用重建
+            for (String invoker : virtualInvokers.tailMap(hashCode, true).values()) {
+                if (!excluded.test(invoker)) {
+                    return invoker;
+                }
+            }
+            //走到环的末尾，从头开始
+            for (String invoker : virtualInvokers.headMap(hashCode, false).values()) {
+                if (!excluded.test(invoker)) {
+                    return invoker;
+                }
             }
-            //找到第一个
-            return entry.getValue();
+            return null;
         }
     }
 }
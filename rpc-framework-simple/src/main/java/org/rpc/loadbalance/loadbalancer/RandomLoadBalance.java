@@ -7,14 +7,31 @@ import org.rpc.remoting.dto.RpcRequest;
 
 import java.util.List;
 import java.util.Random;
+import java.util.function.Predicate;
 
 /**
  * 随机策略，随机选一个服务
  */
 public class RandomLoadBalance extends AbstractLoadBalance {
     @Override
-    protected String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest) {
+    protected String doSelect(List<String> serviceAddresses, RpcRequest rpcRequest, Predicate<String> excluded) {
+        int candidates = 0;
+        for (String serviceAddress : serviceAddresses) {
+            if (!excluded.test(serviceAddress)) {
+                candidates++;
+            }
+        }
+        if (candidates == 0) {
+            return null;
+        }
         Random random = new Random();
-        return serviceAddresses.get(random.nextInt(serviceAddresses.size()));
+        //在没有被排除的地址里随机选第 n 个
+        int n = random.nextInt(candidates);
+        for (String serviceAddress : serviceAddresses) {
+            if (!excluded.test(serviceAddress) && n-- == 0) {
+                return serviceAddress;
+            }
+        }
+        return null;
     }
 }
@@ -0,0 +1,123 @@
+package org.rpc.porxy;
+
+import org.rpc.config.RpcMethodConfig;
+import org.rpc.config.RpcServiceConfig;
+import org.rpc.remoting.dto.RpcRequest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * 接口方法的调用描述，创建代理时为每个方法算好一次：接口名、方法名、参数类型、组和版本都不会变，
+ * 调用时只需要带上参数生成请求，不再每次反射读取方法信息（{@link Method#getParameterTypes()} 每次都会复制数组）
+ */
+public final class MethodDescriptor {
+    private final String interfaceName;
+    private final String methodName;
+    private final Class<?>[] paramTypes;
+    private final String group;
+    private final String version;
+    /**
+     * 返回值是 CompletableFuture 的方法异步调用
+     */
+    private final boolean async;
+    /**
+     * 返回值是 Iterator 或者 Stream 的方法按流式调用，服务端逐个发送元素
+     */
+    private final boolean streaming;
+    private final boolean javaStream;
+    /**
+     * 方法配置了 cacheTtl 时的结果缓存，没有配置时为 null
+     */
+    private final ResponseCache cache;
+    /**
+     * 方法配置了 orderBy 时作为顺序 key 的参数下标，没有配置时为 -1
+     */
+    private final int orderBy;
+
+    MethodDescriptor(Method method, RpcServiceConfig rpcServiceConfig) {
+        this.interfaceName = method.getDeclaringClass().getName();
+        this.methodName = method.getName();
+        this.paramTypes = method.getParameterTypes();
+        this.group = rpcServiceConfig.getGroup();
+        this.version = rpcServiceConfig.getVersion();
+        this.async = method.getReturnType() == CompletableFuture.class;
+        this.javaStream = method.getReturnType() == Stream.class;
+        this.streaming = javaStream || method.getReturnType() == Iterator.class;
+        RpcMethodConfig methodConfig = rpcServiceConfig.getMethods().get(methodName);
+        if (methodConfig != null && methodConfig.getCacheTtl() > 0) {
+            if (streaming) {
+                throw new IllegalArgumentException("streaming method " + this + " can not be cached");
+            }
+            this.cache = new ResponseCache(methodConfig.getCacheTtl(), methodConfig.getCacheSize());
+        } else {
+            this.cache = null;
+        }
+        this.orderBy = methodConfig == null ? -1 : methodConfig.getOrderBy();
+        if (orderBy >= paramTypes.length) {
+            throw new IllegalArgumentException("orderBy " + orderBy + " of " + this + " is out of its " + paramTypes.length + " parameters");
+        }
+        if (orderBy >= 0 && hasIdentityHashCode(paramTypes[orderBy])) {
+            throw new IllegalArgumentException("orderBy parameter " + paramTypes[orderBy].getName() + " of " + this
+                    + " has no value-based hashCode, equal keys would not keep their order");
+        }
+    }
+
+    /**
+     * 顺序 key 是参数的 hashCode，数组和没有覆盖 hashCode 的类每个实例的 hashCode 都不同，相等的参数得不到顺序。
+     * 接口、抽象类和 Object 在运行时可能是任何类型，这里不检查
+     */
+    private static boolean hasIdentityHashCode(Class<?> type) {
+        if (type.isArray()) {
+            return true;
+        }
+        if (type.isPrimitive() || type.isInterface() || type == Object.class || Modifier.isAbstract(type.getModifiers())) {
+            return false;
+        }
+        try {
+            return type.getMethod("hashCode").getDeclaringClass() == Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 用这次调用的参数生成请求，参数类型数组在所有请求之间共用，不能修改
+     */
+    RpcRequest newRequest(Object[] args) {
+        Integer orderKey = orderBy < 0 ? null : Objects.hashCode(args[orderBy]);
+        return new RpcRequest(interfaceName, methodName, args, paramTypes, version, group, 0, orderKey);
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * 流式调用的返回值是 Stream 而不是 Iterator
+     */
+    public boolean isJavaStream() {
+        return javaStream;
+    }
+
+    ResponseCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return interfaceName + "#" + methodName;
+    }
+}
@@ -0,0 +1,100 @@
+package org.rpc.porxy;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.remoting.transport.netty.codec.CodecRegistry;
+import org.rpc.serialize.Serializer;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+    客户端一个方法的结果缓存，key 是参数序列化后的字节，同样的参数命中时不再发起远程调用。
+    缓存的是调用的 future：还没有返回时并发的相同调用拿到的是同一个在途的 future，只发一次请求；
+    调用失败的 future 会立即移出缓存，下一次调用重新请求。
+    过期时间从发起请求开始计算，超过容量时按最近最少使用淘汰
+ */
+final class ResponseCache {
+    private static final Serializer KEY_SERIALIZER = CodecRegistry.getSerializer(SerializationTypeEnum.HESSIAN.getCode());
+
+    private final Cache<Key, CompletableFuture<Object>> cache;
+
+    /**
+     * @param ttlMillis   结果缓存时间（毫秒）
+     * @param maximumSize 最多缓存多少个不同参数的结果
+     */
+    ResponseCache(long ttlMillis, int maximumSize) {
+        if (ttlMillis <= 0 || maximumSize <= 0) {
+            throw new IllegalArgumentException("illegal cache ttl [" + ttlMillis + "] or size [" + maximumSize + "]");
+        }
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 取这组参数的调用结果，没有缓存时调用 loader 发起请求并缓存它返回的 future
+     */
+    CompletableFuture<Object> get(Object[] args, Supplier<CompletableFuture<Object>> loader) {
+        Key key = new Key(KEY_SERIALIZER.serialize(args == null ? new Object[0] : args));
+        CompletableFuture<Object> future;
+        try {
+            future = cache.get(key, () -> {
+                CompletableFuture<Object> loaded = loader.get();
+                loaded.whenComplete((result, e) -> {
+                    if (e != null) {
+                        cache.asMap().remove(key, loaded);
+                    }
+                });
+                return loaded;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        //发送阶段就失败的 future 在放进缓存之前已经完成，上面的回调移除不掉，这里再移除一次
+        if (future.isCompletedExceptionally()) {
+            cache.asMap().remove(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * 正好赶上别的调用在发送请求时也记为未命中，所以实际发出的请求数要看 loadCount，而不是 missCount
+     */
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    private static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package org.rpc.porxy;
+import com.google.common.cache.CacheStats;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.config.RpcServiceConfig;
+import org.rpc.enums.RpcConfigEnum;
 import org.rpc.enums.RpcResponseCodeEnum;
 import org.rpc.exception.RpcException;
 import org.rpc.remoting.dto.RpcRequest;
 import org.rpc.remoting.dto.RpcResponse;
 import org.rpc.remoting.transport.RpcRequestTransport;
 import org.rpc.remoting.transport.netty.client.NettyRpcClient;
-import org.rpc.remoting.transport.socket.SocketRpcClient;
+import org.rpc.remoting.transport.netty.client.RpcStreamIterator;
+import org.rpc.utils.RpcConfigUtil;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.StreamSupport;
 
 import static org.rpc.enums.RpcErrorMessageEnum.*;
 
@@ -26,6 +35,7 @@ import static org.rpc.enums.RpcErrorMessageEnum.*;
 @Slf4j
 public class RpcClientProxy implements InvocationHandler {
     private static final String INTERFACE_NAME = "interfaceName";
+    private static final String STUB = "stub";
     /*
     动态代理将客户端的请求通过网络发送给服务端，这里 提供Socket方式和Netty两种实现
      */
@@ -34,59 +44,176 @@ public class RpcClientProxy implements InvocationHandler {
      */
     private final RpcRequestTransport rpcRequestTransport;
     private final RpcServiceConfig rpcServiceConfig;
+    private final Map<Method, MethodDescriptor> descriptors = new ConcurrentHashMap<>();
     public RpcClientProxy(RpcRequestTransport rpcRequestTransport, RpcServiceConfig rpcServiceConfig) {
         this.rpcRequestTransport = rpcRequestTransport;
         this.rpcServiceConfig = rpcServiceConfig;
     }
     /*
-        获取代理的实例
+        获取代理的实例。创建时为接口的每个方法算好调用描述，调用时不再反射读取方法信息；
+        rpc.client.proxy 配置为 stub 时使用 ASM 生成的实现类，否则使用 JDK 动态代理
      */
     @SuppressWarnings("unchecked")
     public <T> T getProxy(Class<T> clazz) {
+        if (STUB.equals(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_PROXY, null))) {
+            try {
+                return getStub(clazz);
+            } catch (RuntimeException | LinkageError e) {
+                log.warn("generate stub for [{}] failed, use jdk proxy instead", clazz.getName(), e);
+            }
+        }
+        for (Method method : clazz.getMethods()) {
+            descriptors.put(method, new MethodDescriptor(method, rpcServiceConfig));
+        }
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, this);
     }
 
+    /*
+        获取 ASM 生成的实现类的实例
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getStub(Class<T> clazz) {
+        StubGenerator.Stub stub = StubGenerator.getStub(clazz);
+        Method[] methods = stub.getMethods();
+        MethodDescriptor[] stubDescriptors = new MethodDescriptor[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            stubDescriptors[i] = new MethodDescriptor(methods[i], rpcServiceConfig);
+            descriptors.put(methods[i], stubDescriptors[i]);
+        }
+        return (T) stub.newInstance(this, stubDescriptors);
+    }
+
     /**
      *此方法实际上是在使用代理对象调用方法时调用的。
      * Proxy对象是您通过getProxy方法获取的对象。
      */
-    @SneakyThrows
-    @SuppressWarnings("unchecked")
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) {
-        log.info("invoked method: [{}]", method.getName());
+        MethodDescriptor descriptor = descriptors.get(method);
+        if (descriptor == null) {
+            //Object 上的方法（toString 等）不在接口的方法里
+            descriptor = descriptors.computeIfAbsent(method, m -> new MethodDescriptor(m, rpcServiceConfig));
+        }
+        return invoke(descriptor, args);
+    }
+
+    /**
+     * JDK 动态代理和生成的实现类共用的调用入口
+     */
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodDescriptor descriptor, Object[] args) {
+        if (log.isDebugEnabled()) {
+            log.debug("invoked method: [{}]", descriptor);
+        }
+        ResponseCache cache = descriptor.getCache();
+        if (cache != null) {
+            return invokeCached(descriptor, cache, args);
+        }
         //构建RPC请求
-        RpcRequest rpcRequest = RpcRequest.builder().methodName(method.getName())
-                .parameters(args)
-                .interfaceName(method.getDeclaringClass().getName())
-                .paramTypes(method.getParameterTypes())
-                .requestId(UUID.randomUUID().toString())
-                .group(rpcServiceConfig.getGroup())
-                .version(rpcServiceConfig.getVersion())
-                .build();
-        RpcResponse<Object> rpcResponse = null;
-        //通过不同的传输组建进行传输
-        if (rpcRequestTransport instanceof NettyRpcClient) {
-            //发送了RPC的请求，等待响应
-            CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
-            rpcResponse = completableFuture.get();
+        RpcRequest rpcRequest = descriptor.newRequest(args);
+        if (descriptor.isStreaming()) {
+            return openStream(descriptor, rpcRequest);
         }
-        if (rpcRequestTransport instanceof SocketRpcClient) {
-            rpcResponse = (RpcResponse<Object>) rpcRequestTransport.sendRpcRequest(rpcRequest);
+        //返回值是 CompletableFuture 的方法异步调用：直接返回在途的 future，检查放在回调里，调用线程不阻塞
+        if (descriptor.isAsync()) {
+            return sendAsync(rpcRequest).thenApply(rpcResponse -> {
+                this.check(rpcResponse, rpcRequest);
+                return rpcResponse.getData();
+            });
+        }
+        RpcResponse<Object> rpcResponse;
+        //通过不同的传输组建进行传输，Netty 的实现返回在途的 future，socket 的实现直接返回结果
+        Object result = rpcRequestTransport.sendRpcRequest(rpcRequest, rpcServiceConfig);
+        if (result instanceof CompletableFuture) {
+            //发送了RPC的请求，等待响应
+            try {
+                rpcResponse = ((CompletableFuture<RpcResponse<Object>>) result).get();
+            } catch (ExecutionException e) {
+                //超时、连接关闭等失败直接抛出原始的异常
+                throw e.getCause();
+            }
+        } else {
+            rpcResponse = (RpcResponse<Object>) result;
         }
         //检查结果是否存在问题
         this.check(rpcResponse, rpcRequest);
         return rpcResponse.getData();
     }
+    /**
+     * 开启了结果缓存的方法：命中时直接用缓存的结果，相同参数的并发调用共用一个在途请求
+     */
+    private Object invokeCached(MethodDescriptor descriptor, ResponseCache cache, Object[] args) throws Throwable {
+        CompletableFuture<Object> result = cache.get(args, () -> {
+            RpcRequest rpcRequest = descriptor.newRequest(args);
+            return sendAsync(rpcRequest).thenApply(rpcResponse -> {
+                this.check(rpcResponse, rpcRequest);
+                return rpcResponse.getData();
+            });
+        });
+        if (descriptor.isAsync()) {
+            //返回副本，调用方完成或者取消它不会影响缓存的结果
+            return result.copy();
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 开启了结果缓存的方法的命中统计，key 是方法
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new HashMap<>();
+        for (MethodDescriptor descriptor : descriptors.values()) {
+            if (descriptor.getCache() != null) {
+                stats.merge(descriptor.toString(), descriptor.getCache().stats(), CacheStats::plus);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 流式调用：返回阻塞的迭代器，返回值是 Stream 时包装成顺序流，关闭流时通知服务端停止发送
+     */
+    private Object openStream(MethodDescriptor descriptor, RpcRequest rpcRequest) {
+        if (!(rpcRequestTransport instanceof NettyRpcClient)) {
+            throw new UnsupportedOperationException("streaming call " + descriptor + " requires the netty transport");
+        }
+        RpcStreamIterator<Object> iterator = ((NettyRpcClient) rpcRequestTransport).sendStreamRequest(rpcRequest, rpcServiceConfig);
+        if (descriptor.isJavaStream()) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                    .onClose(iterator::close);
+        }
+        return iterator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<RpcResponse<Object>> sendAsync(RpcRequest rpcRequest) {
+        if (rpcRequestTransport instanceof NettyRpcClient) {
+            try {
+                return (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest, rpcServiceConfig);
+            } catch (RuntimeException e) {
+                //发送阶段的失败也通过 future 通知调用方
+                CompletableFuture<RpcResponse<Object>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        //socket 的实现本身是同步的，放到其他线程上执行；其他实现如果返回的是 future 就接着等它
+        return CompletableFuture.supplyAsync(() -> rpcRequestTransport.sendRpcRequest(rpcRequest, rpcServiceConfig))
+                .thenCompose(result -> result instanceof CompletableFuture
+                        ? (CompletableFuture<RpcResponse<Object>>) result
+                        : CompletableFuture.completedFuture((RpcResponse<Object>) result));
+    }
+
     private void check(RpcResponse<Object> rpcResponse, RpcRequest rpcRequest) {
         if (rpcResponse == null) {
             throw new RpcException(SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
-            throw new RpcException(REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
-        }
-
         if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
             throw new RpcException(SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
@@ -0,0 +1,221 @@
+package org.rpc.porxy;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    用 ASM（spring-core 里重新打包的 org.springframework.asm）为接口生成实现类，代替 java.lang.reflect.Proxy。
+    生成的类大致是：
+        public final class HelloService$$RpcStub$$0 implements HelloService {
+            private final RpcClientProxy handler;
+            private final MethodDescriptor[] descriptors;
+            public String hello(Hello hello) {
+                return (String) handler.invoke(descriptors[0], new Object[]{hello});
+            }
+        }
+    直接按下标拿到方法的描述，不用经过 InvocationHandler，也不用在每次调用时查找 Method 对应的描述。
+    每个接口只生成一次，不同的代理实例（组、版本不同）共用同一个类，各自传入自己的描述数组
+ */
+final class StubGenerator {
+    private static final String HANDLER = "handler";
+    private static final String DESCRIPTORS = "descriptors";
+    private static final String HANDLER_DESC = Type.getDescriptor(RpcClientProxy.class);
+    private static final String DESCRIPTORS_DESC = Type.getDescriptor(MethodDescriptor[].class);
+    private static final String INVOKE_DESC = Type.getMethodDescriptor(Type.getType(Object.class),
+            Type.getType(MethodDescriptor.class), Type.getType(Object[].class));
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final ClassValue<Stub> STUBS = new ClassValue<Stub>() {
+        @Override
+        protected Stub computeValue(Class<?> type) {
+            return generate(type);
+        }
+    };
+
+    private StubGenerator() {
+    }
+
+    /**
+     * @return 接口对应的生成类，同一个接口只生成一次
+     * @throws IllegalArgumentException 不是 public 的接口
+     */
+    static Stub getStub(Class<?> interfaceClass) {
+        return STUBS.get(interfaceClass);
+    }
+
+    private static Stub generate(Class<?> interfaceClass) {
+        if (!interfaceClass.isInterface() || !Modifier.isPublic(interfaceClass.getModifiers())) {
+            throw new IllegalArgumentException("can not generate stub for " + interfaceClass.getName());
+        }
+        List<Method> methods = new ArrayList<>();
+        for (Method method : interfaceClass.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                methods.add(method);
+            }
+        }
+        String className = interfaceClass.getName() + "$$RpcStub$$" + COUNTER.getAndIncrement();
+        String internalName = className.replace('.', '/');
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, internalName, null,
+                Type.getInternalName(Object.class), new String[]{Type.getInternalName(interfaceClass)});
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, HANDLER, HANDLER_DESC, null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, DESCRIPTORS, DESCRIPTORS_DESC, null, null).visitEnd();
+        writeConstructor(cw, internalName);
+        for (int i = 0; i < methods.size(); i++) {
+            writeMethod(cw, internalName, methods.get(i), i);
+        }
+        cw.visitEnd();
+        Class<?> stubClass = new StubClassLoader(interfaceClass.getClassLoader()).define(className, cw.toByteArray());
+        try {
+            return new Stub(stubClass.getConstructor(RpcClientProxy.class, MethodDescriptor[].class),
+                    methods.toArray(new Method[0]));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeConstructor(ClassWriter cw, String internalName) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>",
+                "(" + HANDLER_DESC + DESCRIPTORS_DESC + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(Object.class), "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, HANDLER, HANDLER_DESC);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, DESCRIPTORS, DESCRIPTORS_DESC);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * 生成 return (R) handler.invoke(descriptors[index], new Object[]{args...})，基本类型的参数装箱、返回值拆箱
+     */
+    private static void writeMethod(ClassWriter cw, String internalName, Method method, int index) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, internalName, HANDLER, HANDLER_DESC);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, internalName, DESCRIPTORS, DESCRIPTORS_DESC);
+        mv.visitLdcInsn(index);
+        mv.visitInsn(Opcodes.AALOAD);
+        Type[] argumentTypes = Type.getArgumentTypes(method);
+        mv.visitLdcInsn(argumentTypes.length);
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, Type.getInternalName(Object.class));
+        int slot = 1;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitLdcInsn(i);
+            mv.visitVarInsn(argumentTypes[i].getOpcode(Opcodes.ILOAD), slot);
+            box(mv, argumentTypes[i]);
+            mv.visitInsn(Opcodes.AASTORE);
+            slot += argumentTypes[i].getSize();
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(RpcClientProxy.class), "invoke", INVOKE_DESC, false);
+        Type returnType = Type.getReturnType(method);
+        if (returnType.getSort() == Type.VOID) {
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.RETURN);
+        } else {
+            unbox(mv, returnType);
+            mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        Type boxed = boxedType(type);
+        if (boxed != null) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, boxed.getInternalName(), "valueOf",
+                    Type.getMethodDescriptor(boxed, type), false);
+        }
+    }
+
+    private static void unbox(MethodVisitor mv, Type type) {
+        Type boxed = boxedType(type);
+        if (boxed == null) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+            return;
+        }
+        mv.visitTypeInsn(Opcodes.CHECKCAST, boxed.getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, boxed.getInternalName(), type.getClassName() + "Value",
+                Type.getMethodDescriptor(type), false);
+    }
+
+    /**
+     * 基本类型对应的包装类型，引用类型返回 null
+     */
+    private static Type boxedType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getType(Boolean.class);
+            case Type.CHAR:
+                return Type.getType(Character.class);
+            case Type.BYTE:
+                return Type.getType(Byte.class);
+            case Type.SHORT:
+                return Type.getType(Short.class);
+            case Type.INT:
+                return Type.getType(Integer.class);
+            case Type.FLOAT:
+                return Type.getType(Float.class);
+            case Type.LONG:
+                return Type.getType(Long.class);
+            case Type.DOUBLE:
+                return Type.getType(Double.class);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 生成的类和它的方法顺序，descriptors 数组要按 methods 的顺序构造
+     */
+    static final class Stub {
+        private final Constructor<?> constructor;
+        private final Method[] methods;
+
+        private Stub(Constructor<?> constructor, Method[] methods) {
+            this.constructor = constructor;
+            this.methods = methods;
+        }
+
+        Method[] getMethods() {
+            return methods;
+        }
+
+        Object newInstance(RpcClientProxy handler, MethodDescriptor[] descriptors) {
+            try {
+                return constructor.newInstance(handler, descriptors);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("create stub of " + constructor.getDeclaringClass().getName() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * 以接口的类加载器为父加载器，生成的类既能看到接口，也能看到框架的类
+     */
+    private static final class StubClassLoader extends ClassLoader {
+        private StubClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.rpc.provider;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    用 ASM（spring-core 里重新打包的 org.springframework.asm）为服务方法生成 MethodInvoker 的子类。
+    生成的类大致是：
+        public final class HelloServiceImpl$$RpcInvoker$$0 extends MethodInvoker {
+            protected Object doInvoke(Object service, Object[] args) {
+                return ((HelloServiceImpl) service).hello((Hello) args[0]);
+            }
+        }
+    每个方法一个类，调用点是直接的 invokevirtual/invokeinterface，JIT 可以把服务方法内联进来，
+    不像保存在字段里的 MethodHandle 那样每次都要经过句柄间接调用。
+    同一个服务的所有方法共用一个类加载器
+ */
+final class InvokerGenerator {
+    private static final String SUPER_NAME = Type.getInternalName(MethodInvoker.class);
+    private static final String CONSTRUCTOR_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(Method.class));
+    private static final String DO_INVOKE_DESC = Type.getMethodDescriptor(Type.getType(Object.class),
+            Type.getType(Object.class), Type.getType(Object[].class));
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final Class<?> serviceClass;
+    private final InvokerClassLoader classLoader;
+
+    InvokerGenerator(Class<?> serviceClass) {
+        this.serviceClass = serviceClass;
+        ClassLoader parent = serviceClass.getClassLoader();
+        this.classLoader = parent != null && canSee(parent, MethodInvoker.class) ? new InvokerClassLoader(parent) : null;
+    }
+
+    /**
+     * @return 生成的调用器；方法所在的类或者参数类型不是 public、生成的类访问不到的时候返回 null
+     */
+    MethodInvoker generate(Method method) {
+        if (classLoader == null || !isAccessible(method)) {
+            return null;
+        }
+        String className = serviceClass.getName() + "$$RpcInvoker$$" + COUNTER.getAndIncrement();
+        String internalName = className.replace('.', '/');
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, internalName, null, SUPER_NAME, null);
+        writeConstructor(cw);
+        writeDoInvoke(cw, method);
+        cw.visitEnd();
+        Class<?> invokerClass = classLoader.define(className, cw.toByteArray());
+        try {
+            return (MethodInvoker) invokerClass.getConstructor(Method.class).newInstance(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("create invoker of " + method + " failed", e);
+        }
+    }
+
+    /**
+     * 生成的类在另一个运行时包里，只能访问 public 的类；参数类型要 checkcast，同样要求是 public 的
+     */
+    private static boolean isAccessible(Method method) {
+        if (!isPublic(method.getDeclaringClass())) {
+            return false;
+        }
+        for (Class<?> paramType : method.getParameterTypes()) {
+            if (!isPublic(paramType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPublic(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    private static boolean canSee(ClassLoader classLoader, Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, classLoader) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void writeConstructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_NAME, "<init>", CONSTRUCTOR_DESC, false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * 生成 return ((Service) service).method((P0) args[0], ...)，基本类型的参数拆箱、返回值装箱，void 方法返回 null。
+     * 参数个数由 MethodInvoker#invoke 检查过，类型不匹配时 checkcast 抛出 ClassCastException
+     */
+    private static void writeDoInvoke(ClassWriter cw, Method method) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PROTECTED, "doInvoke", DO_INVOKE_DESC, null, null);
+        mv.visitCode();
+        Class<?> owner = method.getDeclaringClass();
+        String ownerName = Type.getInternalName(owner);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, ownerName);
+        Type[] argumentTypes = Type.getArgumentTypes(method);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(Opcodes.AALOAD);
+            unbox(mv, argumentTypes[i]);
+        }
+        boolean isInterface = owner.isInterface();
+        mv.visitMethodInsn(isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL, ownerName, method.getName(),
+                Type.getMethodDescriptor(method), isInterface);
+        Type returnType = Type.getReturnType(method);
+        if (returnType.getSort() == Type.VOID) {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        } else {
+            box(mv, returnType);
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        Type boxed = boxedType(type);
+        if (boxed != null) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, boxed.getInternalName(), "valueOf",
+                    Type.getMethodDescriptor(boxed, type), false);
+        }
+    }
+
+    private static void unbox(MethodVisitor mv, Type type) {
+        Type boxed = boxedType(type);
+        if (boxed == null) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+            return;
+        }
+        mv.visitTypeInsn(Opcodes.CHECKCAST, boxed.getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, boxed.getInternalName(), type.getClassName() + "Value",
+                Type.getMethodDescriptor(type), false);
+    }
+
+    /**
+     * 基本类型对应的包装类型，引用类型返回 null
+     */
+    private static Type boxedType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getType(Boolean.class);
+            case Type.CHAR:
+                return Type.getType(Character.class);
+            case Type.BYTE:
+                return Type.getType(Byte.class);
+            case Type.SHORT:
+                return Type.getType(Short.class);
+            case Type.INT:
+                return Type.getType(Integer.class);
+            case Type.FLOAT:
+                return Type.getType(Float.class);
+            case Type.LONG:
+                return Type.getType(Long.class);
+            case Type.DOUBLE:
+                return Type.getType(Double.class);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 以服务类的类加载器为父加载器，生成的类既能看到服务类，也能看到 MethodInvoker
+     */
+    private static final class InvokerClassLoader extends ClassLoader {
+        private InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
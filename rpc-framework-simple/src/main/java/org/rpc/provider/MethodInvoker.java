@@ -0,0 +1,129 @@
+package org.rpc.provider;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    服务方法的调用器，注册服务时为每个公共方法建好一次。
+    一般是 InvokerGenerator 为这个方法生成的子类，直接调用服务方法；
+    服务类或者参数类型不是 public、生成的类访问不到时退回到 MethodHandle：句柄统一适配成 (Object, Object[])Object，参数数组按方法的参数展开。
+    两种方式调用时都不再按名字查方法，也没有 Method.invoke 的访问检查和 InvocationTargetException 包装，服务方法抛出的异常原样抛出
+ */
+public abstract class MethodInvoker {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Method method;
+    private final Class<?>[] paramTypes;
+
+    protected MethodInvoker(Method method) {
+        this.method = method;
+        this.paramTypes = method.getParameterTypes();
+    }
+
+    /**
+     * 为服务对象的所有公共方法（Object 的方法除外）建立调用器，key 是方法名，同名的重载方法放在同一个数组里
+     *
+     * @throws IllegalArgumentException 方法不能访问
+     */
+    public static Map<String, MethodInvoker[]> forService(Object service) {
+        InvokerGenerator generator = new InvokerGenerator(service.getClass());
+        Map<String, List<MethodInvoker>> byName = new HashMap<>();
+        for (Method method : service.getClass().getMethods()) {
+            if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            MethodInvoker invoker = generator.generate(method);
+            byName.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(invoker != null ? invoker : of(method));
+        }
+        Map<String, MethodInvoker[]> invokers = new HashMap<>();
+        byName.forEach((name, list) -> invokers.put(name, list.toArray(new MethodInvoker[0])));
+        return Collections.unmodifiableMap(invokers);
+    }
+
+    /**
+     * 通过 MethodHandle 调用的调用器
+     */
+    static MethodInvoker of(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            //服务实现类不是 public 的时候公共方法也不能直接访问，和反射调用一样先打开访问权限
+            try {
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException | RuntimeException ex) {
+                throw new IllegalArgumentException("can not access service method " + method, ex);
+            }
+        }
+        return new HandleInvoker(method, handle.asSpreader(Object[].class, method.getParameterCount())
+                .asType(HandleInvoker.GENERIC_TYPE));
+    }
+
+    /**
+     * 在同名的方法中按参数类型找到对应的调用器
+     *
+     * @return 没有匹配的方法时返回 null
+     */
+    public static MethodInvoker find(MethodInvoker[] candidates, Class<?>[] paramTypes) {
+        if (candidates == null) {
+            return null;
+        }
+        for (MethodInvoker invoker : candidates) {
+            if (Arrays.equals(invoker.paramTypes, paramTypes)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 调用服务方法
+     *
+     * @param args 参数，没有参数时可以是 null
+     * @throws IllegalArgumentException 参数个数不匹配；参数类型不匹配时抛出 ClassCastException
+     */
+    public final Object invoke(Object service, Object[] args) throws Throwable {
+        if (args == null) {
+            args = NO_ARGS;
+        }
+        if (args.length != paramTypes.length) {
+            throw new IllegalArgumentException("wrong number of arguments for " + method + ": " + args.length);
+        }
+        return doInvoke(service, args);
+    }
+
+    /**
+     * @param args 个数已经检查过的参数
+     */
+    protected abstract Object doInvoke(Object service, Object[] args) throws Throwable;
+
+    public Method getMethod() {
+        return method;
+    }
+
+    private static final class HandleInvoker extends MethodInvoker {
+        private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+        private final MethodHandle handle;
+
+        private HandleInvoker(Method method, MethodHandle handle) {
+            super(method);
+            this.handle = handle;
+        }
+
+        @Override
+        protected Object doInvoke(Object service, Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(service, args);
+        }
+    }
+}
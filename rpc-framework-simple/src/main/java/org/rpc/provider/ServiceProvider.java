@@ -19,6 +19,20 @@ public interface ServiceProvider {
      */
     Object getService(String rpcServiceName);
 
+    /**
+     * @param rpcServiceName RPC服务名称
+     * @return 注册服务时的配置，比如响应的压缩方式
+     */
+    RpcServiceConfig getServiceConfig(String rpcServiceName);
+
+    /**
+     * @param rpcServiceName RPC服务名称
+     * @param methodName     方法名
+     * @param paramTypes     参数类型
+     * @return 注册服务时建好的方法调用器，没有这个方法时返回 null
+     */
+    MethodInvoker getInvoker(String rpcServiceName, String methodName, Class<?>[] paramTypes);
+
     /**
      * @param rpcServiceConfig RPC相关的属性
      */
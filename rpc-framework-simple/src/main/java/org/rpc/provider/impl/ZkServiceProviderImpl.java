@@ -5,6 +5,7 @@ import org.rpc.config.RpcServiceConfig;
 import org.rpc.enums.RpcErrorMessageEnum;
 import org.rpc.exception.RpcException;
 import org.rpc.extension.ExtensionLoader;
+import org.rpc.provider.MethodInvoker;
 import org.rpc.provider.ServiceProvider;
 import org.rpc.registry.ServiceRegistry;
 import org.rpc.remoting.transport.netty.server.NettyRpcServer;
@@ -23,6 +24,14 @@ public class ZkServiceProviderImpl implements ServiceProvider {
          rpcServiceName的形式为 interface name + version + group
      */
     private final Map<String, Object> serviceMap;
+    /*
+         rpcServiceName 到注册服务时的配置的映射
+     */
+    private final Map<String, RpcServiceConfig> serviceConfigMap;
+    /*
+         rpcServiceName 到服务方法调用器的映射，调用器按方法名分组
+     */
+    private final Map<String, Map<String, MethodInvoker[]>> invokerMap;
     /*
         已经完成注册的服务
      */
@@ -33,6 +42,8 @@ public class ZkServiceProviderImpl implements ServiceProvider {
     private final ServiceRegistry serviceRegistry;
     public ZkServiceProviderImpl() {
         serviceMap = new ConcurrentHashMap<>();
+        serviceConfigMap = new ConcurrentHashMap<>();
+        invokerMap = new ConcurrentHashMap<>();
         registeredService = ConcurrentHashMap.newKeySet();
         serviceRegistry = ExtensionLoader.getExtensionLoader(ServiceRegistry.class).getExtension("zk");
     }
@@ -46,7 +57,10 @@ public class ZkServiceProviderImpl implements ServiceProvider {
             return;
         }
         registeredService.add(rpcServiceName);
+        //先建好调用器再放入服务，请求到来时不会找不到方法
+        invokerMap.put(rpcServiceName, MethodInvoker.forService(rpcServiceConfig.getService()));
         serviceMap.put(rpcServiceName, rpcServiceConfig.getService());
+        serviceConfigMap.put(rpcServiceName, rpcServiceConfig);
         log.info("Add service: {} and interfaces:{}", rpcServiceName, rpcServiceConfig.getService().getClass().getInterfaces());
     }
     /*
@@ -61,6 +75,25 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         return service;
     }
     /*
+    根据serviceName获取注册服务时的配置
+     */
+    @Override
+    public RpcServiceConfig getServiceConfig(String rpcServiceName) {
+        RpcServiceConfig rpcServiceConfig = serviceConfigMap.get(rpcServiceName);
+        if (null == rpcServiceConfig) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND);
+        }
+        return rpcServiceConfig;
+    }
+    /*
+    根据serviceName、方法名和参数类型获取注册服务时建好的调用器
+     */
+    @Override
+    public MethodInvoker getInvoker(String rpcServiceName, String methodName, Class<?>[] paramTypes) {
+        Map<String, MethodInvoker[]> invokers = invokerMap.get(rpcServiceName);
+        return invokers == null ? null : MethodInvoker.find(invokers.get(methodName), paramTypes);
+    }
+    /*
     发布服务
      */
     @Override
@@ -4,6 +4,7 @@ import org.rpc.extension.SPI;
 import org.rpc.remoting.dto.RpcRequest;
 
 import java.net.InetSocketAddress;
+import java.util.Set;
 
 /**
  * service discovery
@@ -20,4 +21,16 @@ public interface ServiceDiscovery {
      * @return service address
      */
     InetSocketAddress lookupService(RpcRequest rpcRequest);
+
+    /**
+     * 查找一个不在 excluded 里的服务地址，用于把对冲请求发到另一个服务提供者
+     *
+     * @param rpcRequest rpc service pojo
+     * @param excluded   不能选的地址
+     * @return service address，没有其他可用的地址时返回 null
+     */
+    default InetSocketAddress lookupService(RpcRequest rpcRequest, Set<InetSocketAddress> excluded) {
+        InetSocketAddress address = lookupService(rpcRequest);
+        return excluded.contains(address) ? null : address;
+    }
 }
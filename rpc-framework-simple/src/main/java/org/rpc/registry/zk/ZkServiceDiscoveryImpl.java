@@ -14,7 +14,10 @@ import org.rpc.remoting.dto.RpcRequest;
 import org.rpc.utils.CollectionUtil;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Slf4j
 public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
@@ -25,6 +28,11 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
 
     }
     public InetSocketAddress lookupService(RpcRequest rpcRequest) {
+        return lookupService(rpcRequest, Collections.emptySet());
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest, Set<InetSocketAddress> excluded) {
         String rpcServiceName = rpcRequest.getRpcServiceName();
         //获取到zookeeper连接的客户端
         CuratorFramework zkClient = CuratorUtils.getZkClient();
@@ -34,13 +42,32 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
         if (CollectionUtil.isEmpty(serviceUrlList)) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, rpcServiceName);
         }
-        // 通过负载均衡器，从服务列表中找到一个对应的服务
-        String targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
+        String targetServiceUrl;
+        if (excluded.isEmpty()) {
+            // 通过负载均衡器，从服务列表中找到一个对应的服务
+            targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
+        } else {
+            //节点列表是缓存共用的，负载均衡器也按这个列表对象缓存了选择器，所以不复制列表，只把要跳过的节点告诉负载均衡器
+            Set<String> excludedUrls = new HashSet<>();
+            for (String serviceUrl : serviceUrlList) {
+                if (excluded.contains(toAddress(serviceUrl))) {
+                    excludedUrls.add(serviceUrl);
+                }
+            }
+            if (excludedUrls.size() == serviceUrlList.size()) {
+                return null;
+            }
+            targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest, excludedUrls::contains);
+        }
         log.info("Successfully found the service address:[{}]", targetServiceUrl);
-        String[] socketAddressArray = targetServiceUrl.split(":"); //获取到提供服务的ip+port
+        //返回socket连接的关键字
+        return toAddress(targetServiceUrl);
+    }
+
+    private static InetSocketAddress toAddress(String serviceUrl) {
+        String[] socketAddressArray = serviceUrl.split(":"); //获取到提供服务的ip+port
         String host = socketAddressArray[0];
         int port = Integer.parseInt(socketAddressArray[1]);
-        //返回socket连接的关键字
         return new InetSocketAddress(host, port);
     }
 }
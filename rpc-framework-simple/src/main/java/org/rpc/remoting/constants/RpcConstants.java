@@ -14,9 +14,15 @@ public class RpcConstants {
      * Magic number. Verify RpcMessage
      */
     public static final byte[] MAGIC_NUMBER = {(byte) 'g', (byte) 'r', (byte) 'p', (byte) 'c'};
+    /**
+     * v2 协议的魔数只保留前两个字节，第三个字节就是版本号（v1 的这个位置是 'p'），据此区分两种帧
+     */
+    public static final byte[] MAGIC_NUMBER_V2 = {(byte) 'g', (byte) 'r'};
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
     //version information
-    public static final byte VERSION = 1;
+    public static final byte VERSION_V1 = 1;
+    public static final byte VERSION_V2 = 2;
+    public static final byte DEFAULT_VERSION = VERSION_V2;
     public static final byte TOTAL_LENGTH = 16;
     public static final byte REQUEST_TYPE = 1;
     public static final byte RESPONSE_TYPE = 2;
@@ -24,9 +30,48 @@ public class RpcConstants {
     public static final byte HEARTBEAT_REQUEST_TYPE = 3;
     //pong
     public static final byte HEARTBEAT_RESPONSE_TYPE = 4;
+    //流式调用：请求、服务端的数据帧和结束帧、客户端的许可帧都使用请求的编号
+    public static final byte STREAM_REQUEST_TYPE = 5;
+    public static final byte STREAM_DATA_TYPE = 6;
+    public static final byte STREAM_END_TYPE = 7;
+    public static final byte STREAM_CREDIT_TYPE = 8;
     public static final int HEAD_LENGTH = 16;
     public static final String PING = "ping";
     public static final String PONG = "pong";
     public static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
+    //解压后的消息体默认的长度上限，压缩后的数据受帧长度限制，解压后的不受，单独限制防止很小的数据解压出巨大的消息
+    public static final int DEFAULT_MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+    //消息体小于这个长度时不压缩，压缩小消息往往得不偿失
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+    //没有配置超时时间时，调用默认的超时时间（毫秒）
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    //每个连接默认最多的在途请求数
+    public static final int DEFAULT_MAX_PENDING_REQUESTS = 1024;
+    //流式调用时客户端最多缓存多少个还没有消费的元素，也就是一次授予服务端的许可数
+    public static final int DEFAULT_STREAM_WINDOW = 256;
+    //开启结果缓存的方法默认最多缓存多少个不同参数的结果
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    //对冲请求最多占普通请求的百分之多少
+    public static final int DEFAULT_HEDGE_BUDGET_PERCENT = 10;
+    //服务独占的线程池默认的队列长度，队列满了之后的请求直接失败
+    public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1024;
+    //准入控制统计排队时间的窗口（毫秒）
+    public static final long DEFAULT_ADMISSION_INTERVAL_MILLIS = 100;
+    //请求因为服务端过载被拒绝时，最多换几个服务提供者重试
+    public static final int DEFAULT_OVERLOAD_RETRIES = 2;
+    //开启合并 flush 时，最多合并多少次 flush
+    public static final int DEFAULT_FLUSH_MAX_BATCH = 64;
+    //每个连接上方法编号的上限，超过之后的方法按完整的请求发送
+    public static final int MAX_METHOD_ID = 65535;
+    //v2 协议的头部扩展类型
+    //剩余超时时间（毫秒），接收方据此换算成本地的截止时间
+    public static final byte EXTENSION_DEADLINE = 1;
+    public static final byte EXTENSION_TRACE_ID = 2;
+    //附加参数，每个 key/value 一个扩展
+    public static final byte EXTENSION_ATTACHMENT = 3;
+    //方法字典里的方法编号（varint32），带这个扩展的请求消息体只有序列化后的参数数组
+    public static final byte EXTENSION_METHOD_ID = 4;
+    //只带方法编号的请求的顺序 key（4B）
+    public static final byte EXTENSION_ORDER_KEY = 5;
 
 }
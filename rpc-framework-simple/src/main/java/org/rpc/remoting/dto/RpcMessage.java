@@ -3,6 +3,8 @@ package org.rpc.remoting.dto;
 
 import lombok.*;
 
+import java.util.Map;
+
 /**
  * @author wangtao
  * @createTime 2020年10月2日 12:33
@@ -15,6 +17,10 @@ import lombok.*;
 @ToString
 public class RpcMessage {
 
+    /**
+     * 协议版本，响应沿用请求的版本
+     */
+    private byte version;
     /**
      * rpc消息类型
      */
@@ -24,13 +30,42 @@ public class RpcMessage {
      */
     private byte codec;
     /**
-     * 压缩类型
+     * 压缩类型。发送时表示期望使用的压缩方式，实际使用的压缩方式由编码器根据 compressThreshold 决定并写入消息头
      */
     private byte compress;
     /**
-     * 请求编号
+     * 压缩阈值，序列化后的消息体小于这个长度时不压缩
+     */
+    private int compressThreshold;
+    /**
+     * 请求编号，客户端用它把响应和请求对应起来。v1 协议只传输低 32 位
+     */
+    private long requestId;
+    /**
+     * 截止时间（本地时间戳，毫秒），0 表示不限制。只有 v2 协议会传输
+     */
+    private long deadline;
+    /**
+     * 链路追踪 id，只有 v2 协议会传输
+     */
+    private String traceId;
+    /**
+     * 附加参数，放在 v2 协议的头部扩展里，不需要塞进序列化的消息体
+     */
+    private Map<String, String> attachments;
+    /**
+     * 方法字典里的编号，0 表示没有。大于 0 时只有 v2 协议的头部扩展带着编号，data 只是参数数组 Object[]，
+     * 服务端解码时再还原成只有编号和参数的 RpcRequest
+     */
+    private int methodId;
+    /**
+     * 只带方法编号的请求的顺序 key，和 methodId 一起放在头部扩展里
+     */
+    private Integer orderKey;
+    /**
+     * 服务端解码时被准入控制拒绝的请求，消息体没有反序列化，data 为 null。只在服务端本地使用，不会传输
      */
-    private int requestId;
+    private boolean overloaded;
     /**
      * 请求数据
      */
@@ -18,13 +18,22 @@ public class RpcRequest implements Serializable {
     Rpc请求
      */
     private static final long serialVersionUID = 1905122041950251207L;
-    private String requestId;
     private String interfaceName;
     private String methodName;
     private Object[] parameters;
     private Class<?>[] paramTypes;
     private String version;
     private String group;
+    /**
+     * 方法在当前连接上的编号，0 表示没有编号。
+     * 第一次调用时和完整的方法信息一起发送，服务端记下之后，同一个连接上的请求只带编号和参数
+     */
+    private int methodId;
+    /**
+     * 顺序 key，null 表示不要求顺序。
+     * 服务端不按连接顺序执行请求时，key 相同的请求仍然按收到的顺序一个接一个地执行
+     */
+    private Integer orderKey;
     public String getRpcServiceName() {
         return this.getInterfaceName() + this.getGroup() + this.getVersion();
     }
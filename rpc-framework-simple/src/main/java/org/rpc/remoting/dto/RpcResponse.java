@@ -21,7 +21,6 @@ public class RpcResponse<T> implements Serializable {
      */
 
     private static final long serialVersionUID = 715745410605631233L;
-    private String requestId;
     /**
      * response code
      */
@@ -35,11 +34,10 @@ public class RpcResponse<T> implements Serializable {
      */
     private T data;
 
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    public static <T> RpcResponse<T> success(T data) {
         RpcResponse<T> response = new RpcResponse<>();
         response.setCode(RpcResponseCodeEnum.SUCCESS.getCode());
         response.setMessage(RpcResponseCodeEnum.SUCCESS.getMessage());
-        response.setRequestId(requestId);
         if (null != data) {
             response.setData(data);
         }
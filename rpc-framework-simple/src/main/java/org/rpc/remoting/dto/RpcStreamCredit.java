@@ -0,0 +1,27 @@
+package org.rpc.remoting.dto;
+
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * 流式调用中客户端发给服务端的许可：服务端每发送一个数据帧消耗一个许可，许可用完就暂停，
+ * 客户端消费掉缓存的元素之后再补充。cancel 为 true 时服务端停止发送并关闭流
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+@ToString
+public class RpcStreamCredit implements Serializable {
+    private static final long serialVersionUID = 3620718312412857906L;
+    /**
+     * 新增的许可数
+     */
+    private int credits;
+    /**
+     * 客户端不再需要后面的数据
+     */
+    private boolean cancel;
+}
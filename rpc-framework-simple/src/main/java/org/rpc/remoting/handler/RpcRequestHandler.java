@@ -3,12 +3,14 @@ package org.rpc.remoting.handler;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.exception.RpcException;
 import org.rpc.factory.SingletonFactory;
+import org.rpc.provider.MethodInvoker;
 import org.rpc.provider.ServiceProvider;
 import org.rpc.provider.impl.ZkServiceProviderImpl;
 import org.rpc.remoting.dto.RpcRequest;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 @Slf4j
 public class RpcRequestHandler {
@@ -23,21 +25,52 @@ public class RpcRequestHandler {
         处理RPC请求，调用对应的方法，并且返回结果
      */
     public Object handle(RpcRequest rpcRequest) {
+        Object result = invoke(rpcRequest);
+        if (result instanceof CompletionStage) {
+            //异步的服务实现：等待结果再返回，客户端拿到的是 future 里的值
+            try {
+                return ((CompletionStage<?>) result).toCompletableFuture().join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        return result;
+    }
+
+    /*
+        调用对应的方法，返回值原样返回：异步的服务实现返回的 CompletionStage 不等待，由调用方在它完成时写回响应
+     */
+    public Object invoke(RpcRequest rpcRequest) {
         Object service = serviceProvider.getService(rpcRequest.getRpcServiceName());
         return invokeTargetMethod(rpcRequest, service);
     }
+
+    /**
+     * 异步的服务实现失败时的异常，和同步方法抛出的异常一样包装成 RpcException
+     */
+    public static RpcException unwrap(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RpcException ? (RpcException) cause : new RpcException(cause.getMessage(), cause);
+    }
     /*
-        获取方法的执行结果
+        获取方法的执行结果，使用注册服务时建好的调用器，不再每次通过反射查找方法
      */
     public Object invokeTargetMethod(RpcRequest rpcRequest, Object service) {
+        MethodInvoker invoker = serviceProvider.getInvoker(rpcRequest.getRpcServiceName(), rpcRequest.getMethodName(),
+                rpcRequest.getParamTypes());
+        if (invoker == null) {
+            NoSuchMethodException e = new NoSuchMethodException(service.getClass().getName() + "." + rpcRequest.getMethodName()
+                    + Arrays.toString(rpcRequest.getParamTypes()));
+            throw new RpcException(e.getMessage(), e);
+        }
         Object result;
         try {
-            //通过反射，从service中获取到要执行的方法
-            Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
-            result = method.invoke(service, rpcRequest.getParameters());
+            result = invoker.invoke(service, rpcRequest.getParameters());
             log.info("service:[{}] successful invoke method:[{}]", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
-
-        } catch (NoSuchMethodException | IllegalArgumentException | InvocationTargetException | IllegalAccessException e) {
+        } catch (Throwable e) {
+            //服务方法抛出的异常原样传上来，不再包一层 InvocationTargetException
             throw new RpcException(e.getMessage(), e);
         }
         return result;
@@ -1,6 +1,7 @@
 package org.rpc.remoting.transport;
 
 
+import org.rpc.config.RpcServiceConfig;
 import org.rpc.extension.SPI;
 import org.rpc.remoting.dto.RpcRequest;
 
@@ -19,4 +20,16 @@ public interface RpcRequestTransport {
      * @return data from server
      */
     Object sendRpcRequest(RpcRequest rpcRequest);
+
+    /**
+     * 按照调用方（{@code @RpcReference}）的配置发送请求，比如压缩方式和压缩阈值。
+     * 不关心这些配置的实现直接忽略它
+     *
+     * @param rpcRequest       message body
+     * @param rpcServiceConfig 调用方的配置
+     * @return data from server
+     */
+    default Object sendRpcRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        return sendRpcRequest(rpcRequest);
+    }
 }
@@ -0,0 +1,247 @@
+package org.rpc.remoting.transport.netty.client;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/*
+    同一个服务地址的连接池，固定 size 个槽位，每个槽位放一个连接的 CompletableFuture。
+    连接按需异步建立：槽位上正在连接时，后来的调用方拿到的是同一个 future，不会各自再建一个连接；
+    连接失败或断开时自动从槽位上移除，下次选到这个槽位时重连。
+    连接建立之前到来的调用按到达的顺序排在槽位上，连接建立之后依次发出，见 acquireOrEnqueue。
+    新连接由 Bootstrap 依次分配到 EventLoopGroup 中不同的 EventLoop 上，所以多个连接可以利用多个 I/O 线程
+ */
+@Slf4j
+public class ChannelPool {
+    private final InetSocketAddress address;
+    private final AtomicReferenceArray<CompletableFuture<Channel>> channels;
+    private final boolean leastPending;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param leastPending true 时选择在途请求最少的连接，否则轮询
+     */
+    public ChannelPool(InetSocketAddress address, int size, boolean leastPending) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("pool size must be positive: " + size);
+        }
+        this.address = address;
+        this.channels = new AtomicReferenceArray<>(size);
+        this.leastPending = leastPending;
+    }
+
+    /**
+     * 选出一个连接，选中的槽位还没有连接时通过 connector 异步建立，不会阻塞调用方
+     *
+     * @return 已经建立好的连接是一个已完成的 future；连接失败时 future 以失败的原因结束
+     */
+    public CompletableFuture<Channel> acquire(Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        return acquire(null, connector);
+    }
+
+    /**
+     * 选出一个连接。连接已经建立好、并且之前排队的调用都已经执行完时直接返回这个连接，调用方在自己的线程上使用；
+     * 否则把 task 按调用的顺序排在这个连接上，连接建立（或者失败）之后依次执行，返回 null。
+     * 不能给每个调用单独注册 whenComplete：CompletableFuture 按注册的逆序执行回调，连接建立前的一批调用会倒过来发出
+     *
+     * @param task 连接建立之后执行，连接失败时 channel 为 null、cause 为失败的原因
+     */
+    public Channel acquireOrEnqueue(Integer orderKey, Function<InetSocketAddress, CompletableFuture<Channel>> connector,
+                                    BiConsumer<Channel, Throwable> task) {
+        CompletableFuture<Channel> channelFuture = acquire(orderKey, connector);
+        if (channelFuture instanceof SlotFuture && ((SlotFuture) channelFuture).enqueue(task)) {
+            return null;
+        }
+        // 不再排队的槽位一定已经完成了
+        if (!channelFuture.isCompletedExceptionally()) {
+            return channelFuture.join();
+        }
+        channelFuture.whenComplete(task);
+        return null;
+    }
+
+    /**
+     * 带顺序 key 的请求固定按 key 选连接：服务端只能保证同一个连接上的请求按收到的顺序处理，
+     * 同一个 key 的请求分散到不同的连接上之后，到达服务端的顺序就不再是发送的顺序
+     *
+     * @param orderKey 请求的顺序 key，null 时按最少在途请求或者轮询选择
+     */
+    public CompletableFuture<Channel> acquire(Integer orderKey, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        if (closed) {
+            throw new IllegalStateException("channel pool of " + address + " is closed");
+        }
+        int index;
+        if (orderKey != null) {
+            // 打散 hashCode 的高位，连续的 key 也能均匀地落到各个连接上
+            index = Math.floorMod(orderKey ^ (orderKey >>> 16), channels.length());
+        } else {
+            index = leastPending ? selectLeastPending() : Math.floorMod(roundRobin.getAndIncrement(), channels.length());
+        }
+        CompletableFuture<Channel> channelFuture = channels.get(index);
+        if (isUsable(channelFuture)) {
+            return channelFuture;
+        }
+        return connect(index, orderKey, channelFuture, connector);
+    }
+
+    /**
+     * 有空槽位时优先补齐连接，否则选在途请求最少的，正在连接的槽位按 0 个在途请求算
+     */
+    private int selectLeastPending() {
+        int best = -1;
+        int bestPending = Integer.MAX_VALUE;
+        // 从不同的位置开始扫描，在途请求数相同时不总是落在第一个连接上
+        int start = Math.floorMod(roundRobin.getAndIncrement(), channels.length());
+        for (int i = 0; i < channels.length(); i++) {
+            int index = (start + i) % channels.length();
+            CompletableFuture<Channel> channelFuture = channels.get(index);
+            if (!isUsable(channelFuture)) {
+                return index;
+            }
+            int pending = channelFuture.isDone() ? pendingOf(channelFuture.join()) : 0;
+            if (pending < bestPending) {
+                best = index;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 槽位为空、连接失败或者连接已经断开时不可用；正在连接的槽位可以直接共用
+     */
+    private static boolean isUsable(CompletableFuture<Channel> channelFuture) {
+        if (channelFuture == null) {
+            return false;
+        }
+        if (!channelFuture.isDone()) {
+            return true;
+        }
+        return !channelFuture.isCompletedExceptionally() && channelFuture.join().isActive();
+    }
+
+    private CompletableFuture<Channel> connect(int index, Integer orderKey, CompletableFuture<Channel> expected,
+                                               Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        SlotFuture placeholder = new SlotFuture();
+        if (!channels.compareAndSet(index, expected, placeholder)) {
+            // 其他线程已经在这个槽位上发起了连接，共用它的结果
+            CompletableFuture<Channel> current = channels.get(index);
+            return current != null ? current : acquire(orderKey, connector);
+        }
+        connector.apply(address).whenComplete((channel, cause) -> {
+            if (cause != null) {
+                // 腾出槽位，下一次请求重新连接
+                channels.compareAndSet(index, placeholder, null);
+                log.warn("connect to [{}] failed, slot [{}]", address, index, cause);
+                placeholder.completeExceptionally(cause);
+                placeholder.drain(null, cause);
+                return;
+            }
+            // 连接断开后把槽位腾出来
+            channel.closeFuture().addListener((ChannelFutureListener) future -> channels.compareAndSet(index, placeholder, null));
+            if (closed) {
+                channel.close();
+                IllegalStateException closedCause = new IllegalStateException("channel pool of " + address + " is closed");
+                placeholder.completeExceptionally(closedCause);
+                placeholder.drain(null, closedCause);
+                return;
+            }
+            log.info("channel [{}] of [{}] connected, slot [{}]", channel, address, index);
+            placeholder.complete(channel);
+            placeholder.drain(channel, null);
+        });
+        return placeholder;
+    }
+
+    private static int pendingOf(Channel channel) {
+        return channel.attr(UnprocessedRequests.KEY).get().size();
+    }
+
+    /**
+     * 当前活跃的连接数
+     */
+    public int activeCount() {
+        int count = 0;
+        for (int i = 0; i < channels.length(); i++) {
+            CompletableFuture<Channel> channelFuture = channels.get(i);
+            if (isUsable(channelFuture) && channelFuture.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 池里所有连接的在途请求数之和
+     */
+    public int pendingCount() {
+        int count = 0;
+        for (int i = 0; i < channels.length(); i++) {
+            CompletableFuture<Channel> channelFuture = channels.get(i);
+            if (channelFuture != null && channelFuture.isDone() && !channelFuture.isCompletedExceptionally()) {
+                count += pendingOf(channelFuture.join());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 关闭池里所有的连接，正在建立的连接在建立后立即关闭
+     */
+    public void close() {
+        closed = true;
+        for (int i = 0; i < channels.length(); i++) {
+            CompletableFuture<Channel> channelFuture = channels.getAndSet(i, null);
+            if (channelFuture != null) {
+                channelFuture.thenAccept(Channel::close);
+            }
+        }
+    }
+
+    /**
+     * 槽位上的连接 future，另外带着连接建立之前排队的调用
+     */
+    private static final class SlotFuture extends CompletableFuture<Channel> {
+        // 为 null 表示排队的调用都已经执行完，之后的调用方直接使用连接
+        private ArrayDeque<BiConsumer<Channel, Throwable>> waiting = new ArrayDeque<>();
+
+        synchronized boolean enqueue(BiConsumer<Channel, Throwable> task) {
+            if (waiting == null) {
+                return false;
+            }
+            waiting.add(task);
+            return true;
+        }
+
+        /**
+         * 连接完成之后按排队的顺序执行。最后一个调用执行完、队列确实空了才停止排队，
+         * 否则之后直接发送的调用可能赶在还没发出的排队调用前面
+         */
+        void drain(Channel channel, Throwable cause) {
+            while (true) {
+                BiConsumer<Channel, Throwable> task;
+                synchronized (this) {
+                    task = waiting.poll();
+                    if (task == null) {
+                        waiting = null;
+                        return;
+                    }
+                }
+                try {
+                    task.accept(channel, cause);
+                } catch (RuntimeException e) {
+                    log.error("pending call on slot failed", e);
+                }
+            }
+        }
+    }
+}
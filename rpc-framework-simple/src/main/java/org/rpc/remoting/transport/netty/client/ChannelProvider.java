@@ -2,51 +2,84 @@ package org.rpc.remoting.transport.netty.client;
 
 import io.netty.channel.Channel;
 import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.utils.RpcConfigUtil;
 
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /*
-    存储和获取Channel的类 ，为每个服务的地址对应一个channel处理网络的操作
+    存储和获取Channel的类 ，为每个服务的地址维护一个连接池处理网络的操作
     Channel是Netty中进行对网络操作抽象类，通过 Channel 我们可以进行 I/O 操作。
+    连接数通过 rpc.client.connections 配置（默认 1），
+    选择策略通过 rpc.client.channel.selector 配置：least-pending（默认，在途请求最少）或 round-robin
  */
 @Slf4j
 public class ChannelProvider {
-    private final Map<String, Channel> channelMap;
+    private static final String ROUND_ROBIN = "round-robin";
+    private final Map<String, ChannelPool> channelPoolMap = new ConcurrentHashMap<>();
+    private final int poolSize;
+    private final boolean leastPending;
+
     public ChannelProvider() {
-        channelMap = new HashMap<>();
+        this.poolSize = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_CONNECTIONS, 1);
+        this.leastPending = !ROUND_ROBIN.equals(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_CHANNEL_SELECTOR, null));
     }
+
     /*
-        根据socket的地址获取对应的Channel
+        根据socket的地址获取一个Channel，没有可用的连接时通过 connector 异步建立，
+        同一个地址上正在建立的连接由所有调用方共用
      */
-    public Channel get(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.toString();
-        //判断释放存在对应连接的地址
-        if (channelMap.containsKey(key)) {
-            Channel channel = channelMap.get(key);
-            //如果存在连接，则判断连接是否可用
-            if (channel != null && channel.isActive()) {
-                return channel;
-            } else {
-                channelMap.remove(key);
-            }
-        }
-        return null;
+    public CompletableFuture<Channel> get(InetSocketAddress inetSocketAddress,
+                                          Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        return get(inetSocketAddress, null, connector);
+    }
+
+    /*
+        连接已经可以直接使用时返回连接；否则 task 按调用的顺序排在连接上，连接建立之后依次执行，返回 null
+     */
+    public Channel acquireOrEnqueue(InetSocketAddress inetSocketAddress, Integer orderKey,
+                                    Function<InetSocketAddress, CompletableFuture<Channel>> connector,
+                                    BiConsumer<Channel, Throwable> task) {
+        return poolOf(inetSocketAddress).acquireOrEnqueue(orderKey, connector, task);
     }
+
     /*
-    为某个请求的连接设置一个channel
+        带顺序 key 的请求，同一个 key 总是拿到同一个连接
      */
-    public void set(InetSocketAddress inetSocketAddress, Channel channel) {
+    public CompletableFuture<Channel> get(InetSocketAddress inetSocketAddress, Integer orderKey,
+                                          Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        return poolOf(inetSocketAddress).acquire(orderKey, connector);
+    }
+
+    private ChannelPool poolOf(InetSocketAddress inetSocketAddress) {
         String key = inetSocketAddress.toString();
-        channelMap.put(key, channel);
+        return channelPoolMap.computeIfAbsent(key, k -> new ChannelPool(inetSocketAddress, poolSize, leastPending));
+    }
+
+    /**
+     * 每个服务地址当前的在途请求数
+     */
+    public Map<String, Integer> getPendingRequests() {
+        Map<String, Integer> pendingRequests = new HashMap<>();
+        channelPoolMap.forEach((address, channelPool) -> pendingRequests.put(address, channelPool.pendingCount()));
+        return pendingRequests;
     }
+
     /*
-        为某个连接移除了channel
+        移除某个地址的连接池，并关闭其中所有的连接
      */
     public void remove(InetSocketAddress inetSocketAddress) {
         String key = inetSocketAddress.toString();
-        channelMap.remove(key);
-        log.info("Channel map size :[{}]", channelMap.size());
+        ChannelPool channelPool = channelPoolMap.remove(key);
+        if (channelPool != null) {
+            channelPool.close();
+        }
+        log.info("Channel pool map size :[{}]", channelPoolMap.size());
     }
 }
@@ -0,0 +1,60 @@
+package org.rpc.remoting.transport.netty.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    对冲请求的预算，限制对冲带来的额外负载。
+    每个开启了对冲的请求存入 percent 份额度，每个对冲请求花掉 100 份，所以长期来看对冲请求不超过请求数的 percent%；
+    额度最多攒到 MAX_BURST 个对冲请求，服务整体变慢、每个请求都超过等待时间时，对冲请求很快就会被预算挡住，不会把负载翻倍
+ */
+class HedgeBudget {
+    private static final long COST = 100;
+    private static final long MAX_BURST = 10;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    /**
+     * @param percent 对冲请求最多占请求数的百分之多少，0 表示不允许对冲
+     */
+    HedgeBudget(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("illegal hedge budget: " + percent);
+        }
+        this.deposit = percent;
+        this.capacity = COST * MAX_BURST;
+        //一开始就是满的，刚启动时也能对冲
+        this.balance = new AtomicLong(percent == 0 ? 0 : capacity);
+    }
+
+    /**
+     * 每个开启了对冲的请求发出时调用
+     */
+    void deposit() {
+        if (deposit == 0) {
+            return;
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    /**
+     * @return 额度够一个对冲请求时扣掉额度并返回 true
+     */
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < COST) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - COST));
+        return true;
+    }
+}
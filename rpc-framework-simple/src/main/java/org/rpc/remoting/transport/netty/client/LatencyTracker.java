@@ -0,0 +1,44 @@
+package org.rpc.remoting.transport.netty.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    一个方法最近的响应时间，用来算对冲请求的等待时间。
+    只保留最近 SAMPLES 次成功调用的耗时，放在环形数组里；每记录 RECOMPUTE_INTERVAL 次重新排序算一次 p95，
+    调用时读到的是最近一次算好的值，不用每次调用都排序
+ */
+class LatencyTracker {
+    private static final int SAMPLES = 256;
+    private static final int RECOMPUTE_INTERVAL = 32;
+    /**
+     * 样本太少时分位数没有意义，不发对冲请求
+     */
+    private static final int MIN_SAMPLES = 32;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile long p95Millis;
+
+    void record(long millis) {
+        int n = count.getAndIncrement();
+        samples.set(n & (SAMPLES - 1), millis);
+        if ((n + 1) % RECOMPUTE_INTERVAL == 0 && n + 1 >= MIN_SAMPLES) {
+            int size = Math.min(n + 1, SAMPLES);
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            p95Millis = sorted[(int) Math.ceil(size * 0.95) - 1];
+        }
+    }
+
+    /**
+     * @return 最近响应时间的 p95（毫秒），样本不够时返回 0
+     */
+    long getP95Millis() {
+        return p95Millis;
+    }
+}
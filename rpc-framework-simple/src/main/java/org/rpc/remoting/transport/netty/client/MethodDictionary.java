@@ -0,0 +1,123 @@
+package org.rpc.remoting.transport.netty.client;
+
+import io.netty.util.AttributeKey;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.dto.RpcRequest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    客户端的方法字典，每个连接一份，挂在 Channel 的属性上。
+    第一次调用某个方法时给它分配一个编号，和接口名、方法名、参数类型等一起发给服务端；
+    收到这个请求的响应之后，同一个连接上后面的请求把编号放在 v2 协议的头部扩展里，消息体只序列化参数数组。
+    v1 协议没有头部扩展，不使用方法字典。
+    服务端过载时请求可能在读消息体之前就被拒绝了，所以等响应而不是等写出去；收到响应之前的请求都带着完整的方法信息。
+    连接断开后字典随 Channel 一起丢弃，新连接重新分配
+ */
+public class MethodDictionary {
+    public static final AttributeKey<MethodDictionary> KEY = AttributeKey.valueOf("methodDictionary");
+
+    private final Map<MethodKey, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger idGenerator = new AtomicInteger();
+
+    /**
+     * 查找或分配方法的编号
+     *
+     * @return 编号已经用完时返回 null，此时按完整的请求发送
+     */
+    public Entry lookup(RpcRequest rpcRequest) {
+        MethodKey key = new MethodKey(rpcRequest);
+        Entry entry = entries.get(key);
+        if (entry != null || idGenerator.get() >= RpcConstants.MAX_METHOD_ID) {
+            return entry;
+        }
+        return entries.computeIfAbsent(key, k -> {
+            int id = idGenerator.incrementAndGet();
+            return id > RpcConstants.MAX_METHOD_ID ? null : new Entry(id);
+        });
+    }
+
+    public static final class Entry {
+        private final int methodId;
+        /**
+         * 带着完整方法信息的请求已经有了不是过载的响应，服务端一定已经记下了这个编号
+         */
+        private volatile boolean registered;
+
+        private Entry(int methodId) {
+            this.methodId = methodId;
+        }
+
+        public int getMethodId() {
+            return methodId;
+        }
+
+        public boolean isRegistered() {
+            return registered;
+        }
+
+        public void markRegistered() {
+            registered = true;
+        }
+
+        /**
+         * 服务端还不知道这个编号时实际发送的请求：完整的方法信息加上编号
+         */
+        public RpcRequest toRegisterRequest(RpcRequest rpcRequest) {
+            return RpcRequest.builder()
+                    .methodId(methodId)
+                    .interfaceName(rpcRequest.getInterfaceName())
+                    .methodName(rpcRequest.getMethodName())
+                    .paramTypes(rpcRequest.getParamTypes())
+                    .group(rpcRequest.getGroup())
+                    .version(rpcRequest.getVersion())
+                    .parameters(rpcRequest.getParameters())
+                    .orderKey(rpcRequest.getOrderKey())
+                    .build();
+        }
+    }
+
+    private static final class MethodKey {
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] paramTypes;
+        private final String group;
+        private final String version;
+        private final int hash;
+
+        private MethodKey(RpcRequest rpcRequest) {
+            this.interfaceName = rpcRequest.getInterfaceName();
+            this.methodName = rpcRequest.getMethodName();
+            this.paramTypes = rpcRequest.getParamTypes();
+            this.group = rpcRequest.getGroup();
+            this.version = rpcRequest.getVersion();
+            this.hash = Objects.hash(interfaceName, methodName, group, version) * 31 + Arrays.hashCode(paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey that = (MethodKey) o;
+            return hash == that.hash
+                    && Objects.equals(interfaceName, that.interfaceName)
+                    && Objects.equals(methodName, that.methodName)
+                    && Objects.equals(group, that.group)
+                    && Objects.equals(version, that.version)
+                    && Arrays.equals(paramTypes, that.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -2,16 +2,22 @@ package org.rpc.remoting.transport.netty.client;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import lombok.SneakyThrows;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import lombok.extern.slf4j.Slf4j;
-import org.rpc.enums.CompressTypeEnum;
+import org.rpc.config.RpcMethodConfig;
+import org.rpc.config.RpcServiceConfig;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.enums.RpcErrorMessageEnum;
+import org.rpc.enums.RpcResponseCodeEnum;
 import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.exception.RpcException;
+import org.rpc.exception.RpcRejectedException;
 import org.rpc.extension.ExtensionLoader;
 import org.rpc.factory.SingletonFactory;
 import org.rpc.registry.ServiceDiscovery;
@@ -22,10 +28,25 @@ import org.rpc.remoting.dto.RpcResponse;
 import org.rpc.remoting.transport.RpcRequestTransport;
 import org.rpc.remoting.transport.netty.codec.RpcMessageDecoder;
 import org.rpc.remoting.transport.netty.codec.RpcMessageEncoder;
+import org.rpc.remoting.transport.netty.flush.BatchFlushHandler;
+import org.rpc.remoting.transport.netty.flush.FlushMetrics;
+import org.rpc.remoting.transport.netty.transport.NettyTransport;
+import org.rpc.utils.RpcConfigUtil;
+import org.rpc.utils.threadpool.ThreadPoolFactoryUtil;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 /*
     初始化并且关闭Bootstrap的对象
@@ -33,23 +54,59 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class NettyRpcClient  implements RpcRequestTransport {
     private final ServiceDiscovery serviceDiscovery; //服务发现
-    private final UnprocessedRequests unprocessedRequests; //未处理的请求列表
     private final ChannelProvider channelProvider; //channel的创建和存储
     private final Bootstrap bootstrap; //启动
     private final EventLoopGroup eventLoopGroup; //EventLoopGroup
+    private final byte protocolVersion; //发送请求使用的协议版本
+    private final boolean flushConsolidation; //是否合并 flush
+    private final FlushMetrics flushMetrics = new FlushMetrics();
+    private final long defaultTimeoutMillis; //没有单独配置超时时间时使用的超时时间
+    //所有请求的超时共用一个时间轮，加入和取消都是 O(1)
+    private final HashedWheelTimer timeoutTimer = new HashedWheelTimer(
+            ThreadPoolFactoryUtil.createThreadFactory("rpc-client-timeout", true), 10, TimeUnit.MILLISECONDS);
+    private final LongAdder timeoutCount = new LongAdder();
+    private final Map<String, LongAdder> methodTimeoutCounts = new ConcurrentHashMap<>();
+    private final int maxPendingRequests; //每个连接的在途请求上限，0 表示不限制
+    private final long pendingWaitMillis; //达到上限或连接不可写时最多等待多久，0 表示立即失败
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final int streamWindow; //流式调用时客户端最多缓存的元素个数
+    private final HedgeBudget hedgeBudget; //对冲请求的预算
+    private final Map<String, LatencyTracker> latencyTrackers = new ConcurrentHashMap<>();
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+    private final LongAdder hedgeThrottledCount = new LongAdder();
+    private final int overloadRetries; //服务端过载拒绝请求时最多换几个服务提供者重试
+    private final LongAdder overloadRetryCount = new LongAdder();
 
     public NettyRpcClient() {
+        this.flushConsolidation = RpcConfigUtil.getBoolean(RpcConfigEnum.FLUSH_CONSOLIDATION, false);
+        int flushMaxBatch = RpcConfigUtil.getInt(RpcConfigEnum.FLUSH_MAX_BATCH, RpcConstants.DEFAULT_FLUSH_MAX_BATCH);
+        long flushDelayMicros = RpcConfigUtil.getLong(RpcConfigEnum.FLUSH_DELAY_MICROS, 0);
+        this.defaultTimeoutMillis = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_TIMEOUT, RpcConstants.DEFAULT_TIMEOUT_MILLIS);
+        this.maxPendingRequests = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_MAX_PENDING, RpcConstants.DEFAULT_MAX_PENDING_REQUESTS);
+        this.pendingWaitMillis = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_PENDING_WAIT, 0);
+        this.streamWindow = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_STREAM_WINDOW, RpcConstants.DEFAULT_STREAM_WINDOW);
+        this.overloadRetries = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_OVERLOAD_RETRIES, RpcConstants.DEFAULT_OVERLOAD_RETRIES);
+        this.hedgeBudget = new HedgeBudget(RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_HEDGE_BUDGET, RpcConstants.DEFAULT_HEDGE_BUDGET_PERCENT));
+        //出站缓冲区超过高水位时连接变为不可写，降到低水位以下恢复
+        WriteBufferWaterMark writeBufferWaterMark = new WriteBufferWaterMark(
+                RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_WRITE_BUFFER_LOW, WriteBufferWaterMark.DEFAULT.low()),
+                RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_WRITE_BUFFER_HIGH, WriteBufferWaterMark.DEFAULT.high()));
+        //Linux 上 epoll 可用时使用 epoll，否则使用 NIO
+        NettyTransport transport = NettyTransport.fromConfig();
         //初始化EventLoopGroup、Bootstrap等资源
         //EventLoopGroup 包含多个 EventLoop（每一个 EventLoop 通常内部包含一个线程）
-        eventLoopGroup = new NioEventLoopGroup();
+        eventLoopGroup = transport.newEventLoopGroup(0);
         //引导类
         bootstrap = new Bootstrap();
         //给引导类配置了线程组
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
+                .channel(transport.channelClass())
                 .handler(new LoggingHandler(LogLevel.INFO))
                 //连接的超时时间 如果超过这个时间 则建立连接失败
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark)
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
@@ -57,17 +114,35 @@ public class NettyRpcClient  implements RpcRequestTransport {
                         ChannelPipeline p = ch.pipeline();
                         //如果15s没有数据发送到服务器，则发送心跳请求
                         p.addLast(new IdleStateHandler(0, 5, 0, TimeUnit.SECONDS));
+                        if (flushConsolidation) {
+                            //多个调用方共用一个连接时，把同一轮里的 flush 合并成一次系统调用
+                            p.addLast(new BatchFlushHandler(flushMaxBatch, flushDelayMicros, flushMetrics));
+                        }
                         p.addLast(new RpcMessageEncoder()); //为什么先encoder啊
                         p.addLast(new RpcMessageDecoder());
-                        p.addLast(new NettyRpcClientHandler());
+                        //每个连接一份未处理的请求表，请求编号也按连接分配
+                        UnprocessedRequests unprocessedRequests = new UnprocessedRequests(
+                                maxPendingRequests > 0 ? maxPendingRequests : RpcConstants.DEFAULT_MAX_PENDING_REQUESTS, maxPendingRequests);
+                        ch.attr(UnprocessedRequests.KEY).set(unprocessedRequests);
+                        ch.attr(MethodDictionary.KEY).set(new MethodDictionary());
+                        StreamRegistry streamRegistry = new StreamRegistry();
+                        ch.attr(StreamRegistry.KEY).set(streamRegistry);
+                        p.addLast(new NettyRpcClientHandler(unprocessedRequests, streamRegistry, protocolVersion));
                     }
                 });
+        transport.configure(bootstrap);
         this.serviceDiscovery = ExtensionLoader.getExtensionLoader(ServiceDiscovery.class).getExtension("zk");
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
         this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
+        int version = RpcConfigUtil.getInt(RpcConfigEnum.PROTOCOL_VERSION, RpcConstants.DEFAULT_VERSION);
+        if (version != RpcConstants.VERSION_V1 && version != RpcConstants.VERSION_V2) {
+            throw new IllegalArgumentException("illegal protocol version: " + version);
+        }
+        this.protocolVersion = (byte) version;
     }
-    @SneakyThrows
-    public Channel doConnect(InetSocketAddress inetSocketAddress) {
+    /**
+     * 异步建立连接，不阻塞调用方；连接失败时 future 以失败的原因结束
+     */
+    public CompletableFuture<Channel> doConnect(InetSocketAddress inetSocketAddress) {
         //CompletableFuture ： Java中进行异步编程
         CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
         //建立连接
@@ -77,54 +152,467 @@ public class NettyRpcClient  implements RpcRequestTransport {
                 log.info("The client has connected [{}] successful!", inetSocketAddress.toString());
                 completableFuture.complete(future.channel());
             } else {
-                throw new IllegalStateException();
+                //在 I/O 线程里抛异常没有人能收到，要通过 future 交给等待连接的请求
+                completableFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                        inetSocketAddress.toString(), future.cause()));
             }
         });
-        return completableFuture.get();
+        return completableFuture;
     }
     @Override
     public Object sendRpcRequest(RpcRequest rpcRequest) {
-        //构建返回值
-        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        return sendRpcRequest(rpcRequest, new RpcServiceConfig());
+    }
+
+    @Override
+    public Object sendRpcRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
         //获取提供server的地址 通过负载均衡从zk中选择并且返回。
         InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
-        Channel channel = getChannel(inetSocketAddress);
-        if (channel.isActive()) {
-            //放置未处理的请求
-            unprocessedRequests.put(rpcRequest.getRequestId(), resultFuture);
-            RpcMessage rpcMessage = RpcMessage.builder().data(rpcRequest)
-                    .codec(SerializationTypeEnum.HESSIAN.getCode())
-                    .compress(CompressTypeEnum.GZIP.getCode())
-                    .messageType(RpcConstants.REQUEST_TYPE).build();
-            channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
-                if (future.isSuccess()) {
-                    log.info("client send message: [{}]", rpcMessage);
-                } else {
-                    future.channel().close();
-                    //完成时发生异常
-                    resultFuture.completeExceptionally(future.cause());
+        long timeoutMillis = rpcServiceConfig.getTimeout(rpcRequest.getMethodName());
+        if (timeoutMillis <= 0) {
+            timeoutMillis = defaultTimeoutMillis;
+        }
+        //超时时间从发起调用开始算，包括等待连接建立的时间
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        RpcMethodConfig methodConfig = rpcServiceConfig.getMethods().get(rpcRequest.getMethodName());
+        if (methodConfig != null && methodConfig.isHedge()) {
+            return sendHedged(inetSocketAddress, rpcRequest, rpcServiceConfig, deadline, methodConfig.getHedgeDelay());
+        }
+        return sendTo(inetSocketAddress, rpcRequest, rpcServiceConfig, deadline, true);
+    }
+
+    /**
+     * 向指定的服务地址发送请求，服务端过载拒绝时换一个服务提供者重试。
+     * 被拒绝的请求在服务端没有执行过，所以不要求方法是幂等的
+     *
+     * @param mayWait 达到在途请求上限时是否可以按 rpc.client.pending.wait 等待
+     */
+    private CompletableFuture<RpcResponse<Object>> sendTo(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest,
+                                                         RpcServiceConfig rpcServiceConfig, long deadline, boolean mayWait) {
+        CompletableFuture<RpcResponse<Object>> attempt = sendOnce(inetSocketAddress, rpcRequest, rpcServiceConfig, deadline, mayWait);
+        if (overloadRetries <= 0) {
+            return attempt;
+        }
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        retryIfOverloaded(attempt, inetSocketAddress, rpcRequest, rpcServiceConfig, deadline, new HashSet<>(), resultFuture);
+        return resultFuture;
+    }
+
+    private void retryIfOverloaded(CompletableFuture<RpcResponse<Object>> attempt, InetSocketAddress inetSocketAddress,
+                                   RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig, long deadline,
+                                   Set<InetSocketAddress> rejectedBy, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        attempt.whenComplete((response, cause) -> {
+            if (cause != null) {
+                resultFuture.completeExceptionally(cause);
+                return;
+            }
+            if (!isOverloaded(response) || rejectedBy.size() >= overloadRetries
+                    || deadline > 0 && System.currentTimeMillis() >= deadline) {
+                resultFuture.complete(response);
+                return;
+            }
+            rejectedBy.add(inetSocketAddress);
+            InetSocketAddress other;
+            try {
+                other = serviceDiscovery.lookupService(rpcRequest, rejectedBy);
+            } catch (RuntimeException e) {
+                log.warn("lookup another provider for [{}] failed", rpcRequest.getRpcServiceName(), e);
+                other = null;
+            }
+            //没有其他服务提供者时把过载的响应交给调用方
+            if (other == null) {
+                resultFuture.complete(response);
+                return;
+            }
+            overloadRetryCount.increment();
+            log.info("[{}] overloaded, retry [{}] on [{}]", inetSocketAddress, rpcRequest.getMethodName(), other);
+            CompletableFuture<RpcResponse<Object>> retry;
+            try {
+                //在 I/O 线程上重试，不能等待在途请求的许可
+                retry = sendOnce(other, rpcRequest, rpcServiceConfig, deadline, false);
+            } catch (RuntimeException e) {
+                retry = new CompletableFuture<>();
+                retry.completeExceptionally(e);
+            }
+            retryIfOverloaded(retry, other, rpcRequest, rpcServiceConfig, deadline, rejectedBy, resultFuture);
+        });
+    }
+
+    private static boolean isOverloaded(RpcResponse<Object> response) {
+        return response != null && response.getCode() != null && response.getCode() == RpcResponseCodeEnum.OVERLOADED.getCode();
+    }
+
+    /**
+     * 向指定的服务地址发送一次请求
+     *
+     * @param mayWait 达到在途请求上限时是否可以按 rpc.client.pending.wait 等待
+     */
+    private CompletableFuture<RpcResponse<Object>> sendOnce(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest,
+                                                           RpcServiceConfig rpcServiceConfig, long deadline, boolean mayWait) {
+        //构建返回值
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        //带顺序 key 的请求固定在 key 对应的连接上发送，服务端才能按发送的顺序收到。
+        //连接还在建立中时请求按调用的顺序排在连接上，连接成功后依次发送，失败时全部以连接失败的原因结束
+        Channel ready = channelProvider.acquireOrEnqueue(inetSocketAddress, rpcRequest.getOrderKey(), this::doConnect, (channel, cause) -> {
+            if (cause != null) {
+                resultFuture.completeExceptionally(cause instanceof CompletionException && cause.getCause() != null
+                        ? cause.getCause() : cause);
+                return;
+            }
+            try {
+                send(channel, rpcRequest, rpcServiceConfig, deadline, mayWait, resultFuture);
+            } catch (RuntimeException e) {
+                resultFuture.completeExceptionally(e);
+            }
+        });
+        if (ready != null) {
+            //连接已经建立好，直接在调用方线程上发送（背压的等待也发生在这里）
+            send(ready, rpcRequest, rpcServiceConfig, deadline, mayWait, resultFuture);
+        }
+        return resultFuture;
+    }
+
+    /**
+     * 对冲请求：先发给 primary，超过等待时间还没有响应时，在预算允许的情况下向另一个服务提供者再发一次。
+     * 先成功返回的结果为准，另一个的结果直接丢弃；两个都失败时调用才失败。
+     * 第一个请求在对冲请求发出之前就失败时调用直接失败，对冲不是重试
+     */
+    private CompletableFuture<RpcResponse<Object>> sendHedged(InetSocketAddress primary, RpcRequest rpcRequest,
+                                                             RpcServiceConfig rpcServiceConfig, long deadline, long hedgeDelayMillis) {
+        LatencyTracker latencyTracker = latencyTrackers.computeIfAbsent(
+                rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName(), k -> new LatencyTracker());
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        //还没有结束的请求数
+        AtomicInteger outstanding = new AtomicInteger(1);
+        hedgeBudget.deposit();
+        long start = System.nanoTime();
+        sendTo(primary, rpcRequest, rpcServiceConfig, deadline, true).whenComplete((response, cause) ->
+                onAttemptComplete(resultFuture, outstanding, latencyTracker, start, response, cause, false));
+        //没有配置固定的等待时间时用最近响应时间的 p95，样本不够时为 0，不发对冲请求
+        long delay = hedgeDelayMillis > 0 ? hedgeDelayMillis : latencyTracker.getP95Millis();
+        if (delay <= 0 || resultFuture.isDone() || deadline > 0 && System.currentTimeMillis() + delay >= deadline) {
+            return resultFuture;
+        }
+        Timeout hedgeTimeout = timeoutTimer.newTimeout(t -> {
+            if (resultFuture.isDone()) {
+                return;
+            }
+            InetSocketAddress other;
+            try {
+                other = serviceDiscovery.lookupService(rpcRequest, Collections.singleton(primary));
+            } catch (RuntimeException e) {
+                log.warn("lookup hedge provider for [{}] failed", rpcRequest.getRpcServiceName(), e);
+                return;
+            }
+            //只有一个服务提供者时对冲没有意义
+            if (other == null) {
+                return;
+            }
+            if (!hedgeBudget.tryWithdraw()) {
+                hedgeThrottledCount.increment();
+                return;
+            }
+            outstanding.incrementAndGet();
+            hedgeCount.increment();
+            long hedgeStart = System.nanoTime();
+            CompletableFuture<RpcResponse<Object>> hedged;
+            try {
+                //在时间轮的线程上发送，不能等待在途请求的许可
+                hedged = sendTo(other, rpcRequest, rpcServiceConfig, deadline, false);
+            } catch (RuntimeException e) {
+                hedged = new CompletableFuture<>();
+                hedged.completeExceptionally(e);
+            }
+            hedged.whenComplete((response, cause) ->
+                    onAttemptComplete(resultFuture, outstanding, latencyTracker, hedgeStart, response, cause, true));
+        }, delay, TimeUnit.MILLISECONDS);
+        resultFuture.whenComplete((response, throwable) -> hedgeTimeout.cancel());
+        return resultFuture;
+    }
+
+    private void onAttemptComplete(CompletableFuture<RpcResponse<Object>> resultFuture, AtomicInteger outstanding,
+                                   LatencyTracker latencyTracker, long startNanos, RpcResponse<Object> response,
+                                   Throwable cause, boolean hedged) {
+        if (cause == null) {
+            latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            if (resultFuture.complete(response) && hedged) {
+                hedgeWinCount.increment();
+            }
+        } else if (outstanding.decrementAndGet() == 0) {
+            resultFuture.completeExceptionally(cause);
+        }
+    }
+
+    private void send(Channel channel, RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig, long deadline,
+                      boolean mayWait, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        if (!channel.isActive()) {
+            throw new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(channel.remoteAddress()));
+        }
+        long timeoutMillis = 0;
+        if (deadline > 0) {
+            timeoutMillis = deadline - System.currentTimeMillis();
+            if (timeoutMillis <= 0) {
+                //连接建立太慢，还没发出去就已经超时了
+                timeoutCount.increment();
+                throw new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                        rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName());
+            }
+        }
+        UnprocessedRequests unprocessedRequests = channel.attr(UnprocessedRequests.KEY).get();
+        acquirePermit(channel, unprocessedRequests, mayWait);
+        long nextId = unprocessedRequests.nextRequestId();
+        // v1 的消息头只能放下低 32 位
+        long requestId = protocolVersion == RpcConstants.VERSION_V1 ? nextId & 0xFFFFFFFFL : nextId;
+        //放置未处理的请求
+        unprocessedRequests.put(requestId, resultFuture);
+        if (timeoutMillis > 0) {
+            scheduleTimeout(rpcRequest, unprocessedRequests, requestId, resultFuture, timeoutMillis);
+        }
+        //通过方法字典压缩请求，服务端记下编号之后编号放在头部扩展里，消息体只有参数
+        MethodDictionary.Entry method = protocolVersion == RpcConstants.VERSION_V1 ? null
+                : channel.attr(MethodDictionary.KEY).get().lookup(rpcRequest);
+        boolean registering = method != null && !method.isRegistered();
+        RpcMessage.RpcMessageBuilder builder = RpcMessage.builder();
+        if (method == null) {
+            builder.data(rpcRequest);
+        } else if (registering) {
+            builder.data(method.toRegisterRequest(rpcRequest));
+        } else {
+            Object[] parameters = rpcRequest.getParameters();
+            builder.data(parameters == null ? new Object[0] : parameters)
+                    .methodId(method.getMethodId())
+                    .orderKey(rpcRequest.getOrderKey());
+        }
+        RpcMessage rpcMessage = builder
+                .version(protocolVersion)
+                .requestId(requestId)
+                .codec(SerializationTypeEnum.HESSIAN.getCode())
+                .compress(rpcServiceConfig.getCompress().getCode())
+                .compressThreshold(rpcServiceConfig.getCompressThreshold())
+                //截止时间放在 v2 协议的头部扩展里带给服务端
+                .deadline(deadline)
+                .messageType(RpcConstants.REQUEST_TYPE).build();
+        if (registering) {
+            //服务端过载时可能根本没有读消息体，收到不是过载的响应才能确定服务端记下了编号
+            resultFuture.thenAccept(response -> {
+                if (!isOverloaded(response)) {
+                    method.markRegistered();
                 }
             });
-        } else {
-            throw new IllegalStateException();
         }
-        return resultFuture;
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                log.info("client send message: [{}]", rpcMessage);
+            } else {
+                //编码失败时编码器已经丢掉了写了一半的帧，连接还能继续用，只让这一个调用失败
+                if (!(future.cause() instanceof EncoderException)) {
+                    future.channel().close();
+                }
+                unprocessedRequests.remove(requestId);
+                //完成时发生异常
+                resultFuture.completeExceptionally(future.cause());
+            }
+        });
     }
     /**
-     * 获取与服务地址相关的Channel
+     * 发起流式调用，服务端的元素通过返回的迭代器逐个读取。
+     * 连接还在建立时迭代器先返回给调用方，连接建立之后再发出请求；超时时间用作等待每一个元素的超时时间
+     */
+    public RpcStreamIterator<Object> sendStreamRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        long timeoutMillis = rpcServiceConfig.getTimeout(rpcRequest.getMethodName());
+        if (timeoutMillis <= 0) {
+            timeoutMillis = defaultTimeoutMillis;
+        }
+        RpcStreamIterator<Object> stream = new RpcStreamIterator<>(streamWindow, timeoutMillis, protocolVersion);
+        InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
+        BiConsumer<Channel, Throwable> start = (channel, cause) -> {
+            if (cause != null) {
+                stream.onError(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                return;
+            }
+            try {
+                startStream(channel, rpcRequest, rpcServiceConfig, stream);
+            } catch (RuntimeException e) {
+                stream.onError(e);
+            }
+        };
+        Channel ready = channelProvider.acquireOrEnqueue(inetSocketAddress, null, this::doConnect, start);
+        if (ready != null) {
+            start.accept(ready, null);
+        }
+        return stream;
+    }
+
+    private void startStream(Channel channel, RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig,
+                             RpcStreamIterator<Object> stream) {
+        if (!channel.isActive()) {
+            throw new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(channel.remoteAddress()));
+        }
+        if (stream.isClosed()) {
+            //调用方在连接建立之前就已经不要了
+            return;
+        }
+        long nextId = channel.attr(UnprocessedRequests.KEY).get().nextRequestId();
+        long requestId = protocolVersion == RpcConstants.VERSION_V1 ? nextId & 0xFFFFFFFFL : nextId;
+        StreamRegistry streamRegistry = channel.attr(StreamRegistry.KEY).get();
+        streamRegistry.register(requestId, stream);
+        stream.bind(channel, requestId, streamRegistry);
+        //流式请求不走方法字典，每个流只有一个请求帧
+        RpcMessage rpcMessage = RpcMessage.builder().data(rpcRequest)
+                .version(protocolVersion)
+                .requestId(requestId)
+                .codec(SerializationTypeEnum.HESSIAN.getCode())
+                .compress(rpcServiceConfig.getCompress().getCode())
+                .compressThreshold(rpcServiceConfig.getCompressThreshold())
+                .messageType(RpcConstants.STREAM_REQUEST_TYPE).build();
+        channel.write(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                future.channel().close();
+                streamRegistry.remove(requestId);
+                stream.onError(future.cause());
+            }
+        });
+        //紧跟在请求后面授予第一个窗口的许可，和请求一起 flush
+        stream.grant(stream.getWindow());
+    }
+
+    /**
+     * 背压：在途请求数达到上限或者连接不可写时，在 rpc.client.pending.wait 内等待，仍然不行就抛出 {@link RpcRejectedException}。
+     * 在 I/O 线程上（比如在异步回调里发起调用）或者 mayWait 为 false 时不能等待，直接失败
+     */
+    private void acquirePermit(Channel channel, UnprocessedRequests unprocessedRequests, boolean mayWait) {
+        long waitMillis = mayWait && !channel.eventLoop().inEventLoop() ? pendingWaitMillis : 0;
+        long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            if (!unprocessedRequests.tryAcquire(0)) {
+                throttledCount.increment();
+                if (!unprocessedRequests.tryAcquire(waitMillis)) {
+                    rejectedCount.increment();
+                    throw new RpcRejectedException(RpcErrorMessageEnum.TOO_MANY_PENDING_REQUESTS,
+                            channel.remoteAddress() + " pending " + unprocessedRequests.size());
+                }
+            }
+            acquired = true;
+            if (!channel.isWritable()) {
+                throttledCount.increment();
+                long remaining = waitMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (remaining <= 0 || !unprocessedRequests.awaitWritable(channel, remaining)) {
+                    unprocessedRequests.release();
+                    rejectedCount.increment();
+                    throw new RpcRejectedException(RpcErrorMessageEnum.CHANNEL_NOT_WRITABLE, String.valueOf(channel.remoteAddress()));
+                }
+            }
+        } catch (InterruptedException e) {
+            if (acquired) {
+                unprocessedRequests.release();
+            }
+            Thread.currentThread().interrupt();
+            throw new RpcException("interrupted while waiting for " + channel.remoteAddress(), e);
+        }
+    }
+
+    /**
+     * 超时之后把请求从未处理的请求中移除并让调用方失败；请求先完成时取消定时任务
+     */
+    private void scheduleTimeout(RpcRequest rpcRequest, UnprocessedRequests unprocessedRequests, long requestId,
+                                 CompletableFuture<RpcResponse<Object>> resultFuture, long timeoutMillis) {
+        Timeout timeout = timeoutTimer.newTimeout(t -> {
+            if (unprocessedRequests.remove(requestId) != null) {
+                timeoutCount.increment();
+                methodTimeoutCounts.computeIfAbsent(rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName(),
+                        k -> new LongAdder()).increment();
+                resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                        rpcRequest.getInterfaceName() + "#" + rpcRequest.getMethodName() + " " + timeoutMillis + "ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        resultFuture.whenComplete((response, throwable) -> timeout.cancel());
+    }
+
+    /**
+     * 从服务地址的连接池里获取一个Channel，没有可用的连接时异步建立新连接
      * @param inetSocketAddress
      * @return
      */
-    public Channel getChannel(InetSocketAddress inetSocketAddress) {
-        Channel channel = channelProvider.get(inetSocketAddress);
-        //如果没有对应的连接，则建立连接，如果有对应的连接，则直接从channelProvider取得
-        if (channel == null) {
-            channel = doConnect(inetSocketAddress);
-            channelProvider.set(inetSocketAddress, channel);
-        }
-        return channel;
+    public CompletableFuture<Channel> getChannel(InetSocketAddress inetSocketAddress) {
+        return channelProvider.get(inetSocketAddress, this::doConnect);
     }
+
+    /**
+     * 因为在途请求达到上限或者连接不可写而需要等待的次数
+     */
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    /**
+     * 等待之后仍然被拒绝的请求数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 每个服务地址当前的在途请求数
+     */
+    public Map<String, Integer> getPendingRequests() {
+        return channelProvider.getPendingRequests();
+    }
+
+    /**
+     * 超时的请求总数
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * 按 接口名#方法名 统计的超时请求数
+     */
+    public Map<String, Long> getMethodTimeoutCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        methodTimeoutCounts.forEach((method, count) -> counts.put(method, count.sum()));
+        return counts;
+    }
+
+    /**
+     * 发出的对冲请求数
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * 对冲请求先于原请求返回的次数
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * 因为预算用完而没有发出的对冲请求数
+     */
+    public long getHedgeThrottledCount() {
+        return hedgeThrottledCount.sum();
+    }
+
+    /**
+     * 服务端过载拒绝之后换服务提供者重试的次数
+     */
+    public long getOverloadRetryCount() {
+        return overloadRetryCount.sum();
+    }
+
+    public FlushMetrics getFlushMetrics() {
+        return flushMetrics;
+    }
+
+    public byte getProtocolVersion() {
+        return protocolVersion;
+    }
+
     public void close() {
+        timeoutTimer.stop();
         eventLoopGroup.shutdownGracefully();
     }
 }
@@ -6,14 +6,13 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.RpcErrorMessageEnum;
 import org.rpc.enums.SerializationTypeEnum;
-import org.rpc.factory.SingletonFactory;
+import org.rpc.exception.RpcException;
 import org.rpc.remoting.constants.RpcConstants;
 import org.rpc.remoting.dto.RpcMessage;
 import org.rpc.remoting.dto.RpcResponse;
 
-import java.net.InetSocketAddress;
-
 /**
  * 如果继承自 SimpleChannelInboundHandler 的话就不要考虑 ByteBuf 的释放 ，
  * {@link SimpleChannelInboundHandler} 内部的
@@ -24,10 +23,12 @@ import java.net.InetSocketAddress;
 @Slf4j
 public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
     private final UnprocessedRequests unprocessedRequests; //未处理的请求
-    private final NettyRpcClient nettyRpcClient;
-    public NettyRpcClientHandler() {
-        this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
-        this.nettyRpcClient = SingletonFactory.getInstance(NettyRpcClient.class);
+    private final StreamRegistry streamRegistry; //没有结束的流式调用
+    private final byte protocolVersion; //心跳使用的协议版本，和这个客户端发出的请求一致
+    public NettyRpcClientHandler(UnprocessedRequests unprocessedRequests, StreamRegistry streamRegistry, byte protocolVersion) {
+        this.unprocessedRequests = unprocessedRequests;
+        this.streamRegistry = streamRegistry;
+        this.protocolVersion = protocolVersion;
     }
     /**
      * 读取server发送的消息
@@ -46,7 +47,20 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
                     //response
                     RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
                     //表示当前请求已经处理结束
-                    unprocessedRequests.complete(rpcResponse);
+                    if (!unprocessedRequests.complete(tmp.getRequestId(), rpcResponse)) {
+                        log.warn("response [{}] arrived after the request timed out", tmp.getRequestId());
+                    }
+                } else if (messageType == RpcConstants.STREAM_DATA_TYPE) {
+                    RpcStreamIterator<?> stream = streamRegistry.get(tmp.getRequestId());
+                    //流已经被调用方关闭时，取消之前还在路上的数据帧直接丢弃
+                    if (stream != null) {
+                        stream.onData(((RpcResponse<?>) tmp.getData()).getData());
+                    }
+                } else if (messageType == RpcConstants.STREAM_END_TYPE) {
+                    RpcStreamIterator<?> stream = streamRegistry.remove(tmp.getRequestId());
+                    if (stream != null) {
+                        stream.onEnd((RpcResponse<?>) tmp.getData());
+                    }
                 }
             }
         } finally {
@@ -61,10 +75,12 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
             if (state == IdleState.WRITER_IDLE) {
                 //写入之后 Channel的消息表示被处理掉了
                 log.info("write idle happen [{}]", ctx.channel().remoteAddress());
-                Channel channel = nettyRpcClient.getChannel((InetSocketAddress) ctx.channel().remoteAddress());
+                //连接池里每个连接各自发心跳
+                Channel channel = ctx.channel();
                 RpcMessage rpcMessage = new RpcMessage();
+                rpcMessage.setVersion(protocolVersion);
                 rpcMessage.setCodec(SerializationTypeEnum.PROTOSTUFF.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 //心跳检测包
                 rpcMessage.setData(RpcConstants.PING);
@@ -75,6 +91,31 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 连接断开时，这个连接上还没有返回的请求不会再有响应，全部立即失败
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        RpcException cause = new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(ctx.channel().remoteAddress()));
+        int failed = unprocessedRequests.failAll(cause) + streamRegistry.failAll(cause);
+        if (failed > 0) {
+            log.warn("channel [{}] closed with [{}] pending requests", ctx.channel(), failed);
+        }
+        unprocessedRequests.signalWritable();
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 出站缓冲区降到低水位以下时唤醒等待发送的调用方
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            unprocessedRequests.signalWritable();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     /**
      * 出现异常时调用
      * @param ctx
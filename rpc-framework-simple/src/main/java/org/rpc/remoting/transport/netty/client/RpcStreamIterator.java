@@ -0,0 +1,185 @@
+package org.rpc.remoting.transport.netty.client;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.RpcErrorMessageEnum;
+import org.rpc.enums.RpcResponseCodeEnum;
+import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.exception.RpcException;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.dto.RpcMessage;
+import org.rpc.remoting.dto.RpcResponse;
+import org.rpc.remoting.dto.RpcStreamCredit;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+    客户端一次流式调用的结果，阻塞的迭代器。
+    开始时授予服务端 window 个许可，服务端最多先发 window 个元素；每消费掉半个窗口再补充同样多的许可，
+    所以缓存的元素不会超过 window 个，翻页读取上百万行时内存也是有界的。
+    数据帧在 I/O 线程上放进队列，调用方在自己的线程上迭代。不再需要后面的数据时调用 close 通知服务端停止发送
+ */
+public class RpcStreamIterator<T> implements Iterator<T>, AutoCloseable {
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final int window;
+    private final long timeoutMillis;
+    private final byte version;
+    private volatile Channel channel;
+    private volatile long requestId;
+    private volatile StreamRegistry streamRegistry;
+    private volatile boolean closed;
+    //下面的字段只在调用方的线程上访问
+    private Object lookahead;
+    private int consumed;
+
+    /**
+     * @param window        客户端最多缓存的元素个数
+     * @param timeoutMillis 等待下一个元素的超时时间，0 表示一直等待
+     * @param version       许可帧使用的协议版本
+     */
+    public RpcStreamIterator(int window, long timeoutMillis, byte version) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("illegal stream window: " + window);
+        }
+        this.window = window;
+        this.timeoutMillis = timeoutMillis;
+        this.version = version;
+    }
+
+    /**
+     * 请求发出之前绑定到连接上
+     */
+    void bind(Channel channel, long requestId, StreamRegistry streamRegistry) {
+        this.channel = channel;
+        this.requestId = requestId;
+        this.streamRegistry = streamRegistry;
+    }
+
+    void onData(Object data) {
+        queue.offer(data == null ? NULL : data);
+    }
+
+    void onEnd(RpcResponse<?> rpcResponse) {
+        if (rpcResponse.getCode() != null && rpcResponse.getCode() == RpcResponseCodeEnum.SUCCESS.getCode()) {
+            queue.offer(END);
+        } else {
+            queue.offer(new Failure(new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, rpcResponse.getMessage())));
+        }
+    }
+
+    void onError(Throwable cause) {
+        queue.offer(new Failure(cause));
+    }
+
+    /**
+     * 授予服务端 credits 个许可，第一次授予整个窗口
+     */
+    void grant(int credits) {
+        sendCredit(RpcStreamCredit.builder().credits(credits).build());
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (lookahead == null) {
+            lookahead = closed ? END : take();
+        }
+        if (lookahead instanceof Failure) {
+            Throwable cause = ((Failure) lookahead).cause;
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RpcException(cause.getMessage(), cause);
+        }
+        return lookahead != END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object item = lookahead;
+        lookahead = null;
+        //消费掉半个窗口补充一次许可，不用每个元素都发一个许可帧
+        if (++consumed >= Math.max(1, window / 2)) {
+            grant(consumed);
+            consumed = 0;
+        }
+        return item == NULL ? null : (T) item;
+    }
+
+    /**
+     * 提前结束：通知服务端停止发送，之后 hasNext 返回 false
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        StreamRegistry registry = streamRegistry;
+        if (registry != null && registry.remove(requestId) != null) {
+            //还没有收到结束帧，让服务端停下来
+            sendCredit(RpcStreamCredit.builder().cancel(true).build());
+        }
+        queue.clear();
+        if (!(lookahead instanceof Failure)) {
+            lookahead = END;
+        }
+    }
+
+    private Object take() {
+        try {
+            Object item = timeoutMillis > 0 ? queue.poll(timeoutMillis, TimeUnit.MILLISECONDS) : queue.take();
+            if (item == null) {
+                close();
+                return new Failure(new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT, "stream " + requestId + " " + timeoutMillis + "ms"));
+            }
+            if (item == END) {
+                closed = true;
+            }
+            return item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            return new Failure(new RpcException("interrupted while waiting for stream " + requestId, e));
+        }
+    }
+
+    private void sendCredit(RpcStreamCredit credit) {
+        Channel ch = channel;
+        if (ch == null || !ch.isActive()) {
+            return;
+        }
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(version);
+        rpcMessage.setRequestId(requestId);
+        rpcMessage.setMessageType(RpcConstants.STREAM_CREDIT_TYPE);
+        rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode());
+        rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+        rpcMessage.setData(credit);
+        ch.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.rpc.remoting.transport.netty.client;
+
+import io.netty.util.AttributeKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    连接上还没有结束的流式调用，每个连接一份，挂在 Channel 的属性上。
+    数据帧和结束帧按请求编号找到对应的迭代器；编号和普通请求共用 UnprocessedRequests 的编号，不会冲突
+ */
+public class StreamRegistry {
+    public static final AttributeKey<StreamRegistry> KEY = AttributeKey.valueOf("streamRegistry");
+
+    private final Map<Long, RpcStreamIterator<?>> streams = new ConcurrentHashMap<>();
+
+    public void register(long requestId, RpcStreamIterator<?> stream) {
+        streams.put(requestId, stream);
+    }
+
+    public RpcStreamIterator<?> get(long requestId) {
+        return streams.get(requestId);
+    }
+
+    public RpcStreamIterator<?> remove(long requestId) {
+        return streams.remove(requestId);
+    }
+
+    /**
+     * 连接关闭时让所有没有结束的流立即失败
+     *
+     * @return 失败的流的个数
+     */
+    public int failAll(Throwable cause) {
+        int count = 0;
+        for (Long requestId : streams.keySet()) {
+            RpcStreamIterator<?> stream = streams.remove(requestId);
+            if (stream != null) {
+                stream.onError(cause);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return streams.size();
+    }
+}
@@ -1,34 +1,228 @@
 package org.rpc.remoting.transport.netty.client;
 
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
 import org.rpc.remoting.dto.RpcResponse;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /*
     服务器未处理的请求
+    每个连接一份，挂在 Channel 的属性上。请求编号在连接内单调递增，
+    用 requestId & mask 直接定位到槽位，存取都是一次 CAS，不需要装箱和计算字符串的哈希。
+    槽位被一个很久没有返回的请求占着时（在途请求跨度超过容量），才退化到溢出表里。
+    同时负责这个连接的背压：在途请求数的上限（放入前先 tryAcquire，移除时自动归还）以及等待连接重新可写
  */
 public class UnprocessedRequests {
-    //到等待时间而未进行处理的请求
-    //CompletableFuture主要是用于异步调用，内部封装了线程池，可以将请求或者处理过程，进行异步处理。
-    private static final Map<String, CompletableFuture<RpcResponse<Object>>> UNPROCESSED_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    public static final AttributeKey<UnprocessedRequests> KEY = AttributeKey.valueOf("unprocessedRequests");
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicLong requestIdGenerator = new AtomicLong();
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    //槽位冲突时的后备，正常情况下一直是空的
+    private final Map<Long, Entry> overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    //在途请求数的许可，null 表示不限制
+    private final Semaphore permits;
+    private final int maxPending;
+    private final Object writableLock = new Object();
+
+    public UnprocessedRequests() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public UnprocessedRequests(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity   槽位数量，会向上取整到 2 的幂
+     * @param maxPending 在途请求数的上限，0 表示不限制
+     */
+    public UnprocessedRequests(int capacity, int maxPending) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+        if (maxPending < 0) {
+            throw new IllegalArgumentException("illegal maxPending: " + maxPending);
+        }
+        int n = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(n);
+        this.mask = n - 1;
+        this.maxPending = maxPending;
+        this.permits = maxPending > 0 ? new Semaphore(maxPending) : null;
+    }
+
+    /**
+     * 获取一个在途请求的许可，put 之前必须先获取；请求被 remove 或 failAll 时自动归还
+     *
+     * @param waitMillis 没有许可时最多等待多久，0 表示立即返回
+     * @return 是否获取到许可
+     */
+    public boolean tryAcquire(long waitMillis) throws InterruptedException {
+        if (permits == null) {
+            return true;
+        }
+        return waitMillis > 0 ? permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS) : permits.tryAcquire();
+    }
+
+    /**
+     * 归还获取了但最终没有 put 的许可
+     */
+    public void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * 等待连接重新可写（出站缓冲区降到低水位以下）
+     *
+     * @return 超时或连接关闭时返回 false
+     */
+    public boolean awaitWritable(Channel channel, long waitMillis) throws InterruptedException {
+        if (channel.isWritable()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        synchronized (writableLock) {
+            while (!channel.isWritable() && channel.isActive()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(writableLock, remaining);
+            }
+        }
+        return channel.isWritable();
+    }
+
+    /**
+     * 连接的可写状态变化或者连接关闭时唤醒等待的调用方
+     */
+    public void signalWritable() {
+        synchronized (writableLock) {
+            writableLock.notifyAll();
+        }
+    }
+
+    /**
+     * 分配本连接的下一个请求编号
+     */
+    public long nextRequestId() {
+        return requestIdGenerator.getAndIncrement();
+    }
 
     /*
-        将未处理的请求的requestId和对应的相应存起来
-     */
-    public void put(String requestId, CompletableFuture<RpcResponse<Object>> future) {
-        UNPROCESSED_RESPONSE_FUTURES.put(requestId, future);
-    }
-    public void complete(RpcResponse<Object> rpcResponse) {
-        //当前rpcResponse对应的未处理的请求
-        CompletableFuture<RpcResponse<Object>> future = UNPROCESSED_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
-        if (null != future) {
-            //表示这些请求已经处理完了
-            //future所代表的线程已经完成
-            future.complete(rpcResponse);
-        } else {
-            throw new IllegalStateException();
+        将未处理的请求的requestId和对应的相应存起来，requestId 是消息头里的请求编号
+     */
+    public void put(long requestId, CompletableFuture<RpcResponse<Object>> future) {
+        Entry entry = new Entry(requestId, future);
+        if (!slots.compareAndSet(index(requestId), null, entry)) {
+            overflow.put(requestId, entry);
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * 取出并移除请求对应的 future，没有时返回 null
+     */
+    public CompletableFuture<RpcResponse<Object>> remove(long requestId) {
+        int index = index(requestId);
+        Entry entry = slots.get(index);
+        if (entry != null && entry.requestId == requestId && slots.compareAndSet(index, entry, null)) {
+            removed();
+            return entry.future;
+        }
+        if (!overflow.isEmpty()) {
+            entry = overflow.remove(requestId);
+            if (entry != null) {
+                removed();
+                return entry.future;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 找不到对应的请求（已经超时或者连接已经关闭）时返回 false
+     */
+    public boolean complete(long requestId, RpcResponse<Object> rpcResponse) {
+        //当前rpcResponse对应的未处理的请求，服务端会原样带回请求的编号
+        CompletableFuture<RpcResponse<Object>> future = remove(requestId);
+        if (null == future) {
+            return false;
+        }
+        //表示这些请求已经处理完了
+        //future所代表的线程已经完成
+        future.complete(rpcResponse);
+        return true;
+    }
+
+    /**
+     * 连接关闭时让所有在途的请求立即失败
+     *
+     * @return 失败的请求数
+     */
+    public int failAll(Throwable cause) {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.getAndSet(i, null);
+            if (entry != null) {
+                removed();
+                entry.future.completeExceptionally(cause);
+                count++;
+            }
+        }
+        for (Long requestId : overflow.keySet()) {
+            Entry entry = overflow.remove(requestId);
+            if (entry != null) {
+                removed();
+                entry.future.completeExceptionally(cause);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 当前在途的请求数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 在途请求数的上限，0 表示不限制
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    private void removed() {
+        size.decrementAndGet();
+        release();
+    }
+
+    private int index(long requestId) {
+        return (int) requestId & mask;
+    }
+
+    private static final class Entry {
+        private final long requestId;
+        private final CompletableFuture<RpcResponse<Object>> future;
+
+        private Entry(long requestId, CompletableFuture<RpcResponse<Object>> future) {
+            this.requestId = requestId;
+            this.future = future;
         }
     }
 }
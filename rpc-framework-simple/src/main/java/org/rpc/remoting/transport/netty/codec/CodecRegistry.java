@@ -0,0 +1,62 @@
+package org.rpc.remoting.transport.netty.codec;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.compress.Compress;
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.extension.ExtensionLoader;
+import org.rpc.serialize.Serializer;
+
+/**
+ * 序列化和压缩实现的注册表。
+ * 类加载时按照 {@link SerializationTypeEnum} 和 {@link CompressTypeEnum} 通过 SPI 一次性加载所有实现，
+ * 放到以消息头里的类型字节为下标的数组中，编解码时直接按下标取，不用每条消息都遍历枚举、查 ExtensionLoader 的缓存
+ */
+@Slf4j
+public final class CodecRegistry {
+    private static final int TABLE_SIZE = 256;
+    private static final Serializer[] SERIALIZERS = new Serializer[TABLE_SIZE];
+    private static final Compress[] COMPRESSES = new Compress[TABLE_SIZE];
+
+    static {
+        for (SerializationTypeEnum type : SerializationTypeEnum.values()) {
+            SERIALIZERS[type.getCode() & 0xFF] = ExtensionLoader.getExtensionLoader(Serializer.class)
+                    .getExtension(type.getName());
+            log.info("register serializer [{}] with code [{}]", type.getName(), type.getCode());
+        }
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            COMPRESSES[type.getCode() & 0xFF] = ExtensionLoader.getExtensionLoader(Compress.class)
+                    .getExtension(type.getName());
+            log.info("register compress [{}] with code [{}]", type.getName(), type.getCode());
+        }
+    }
+
+    private CodecRegistry() {
+    }
+
+    /**
+     * @param code 消息头中的序列化类型
+     * @return 对应的序列化实现
+     * @throws IllegalArgumentException 未知的序列化类型
+     */
+    public static Serializer getSerializer(byte code) {
+        Serializer serializer = SERIALIZERS[code & 0xFF];
+        if (serializer == null) {
+            throw new IllegalArgumentException("Unknown codec type: " + code);
+        }
+        return serializer;
+    }
+
+    /**
+     * @param code 消息头中的压缩类型
+     * @return 对应的压缩实现
+     * @throws IllegalArgumentException 未知的压缩类型
+     */
+    public static Compress getCompress(byte code) {
+        Compress compress = COMPRESSES[code & 0xFF];
+        if (compress == null) {
+            throw new IllegalArgumentException("Unknown compress type: " + code);
+        }
+        return compress;
+    }
+}
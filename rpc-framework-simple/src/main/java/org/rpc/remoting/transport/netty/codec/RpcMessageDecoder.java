@@ -2,20 +2,24 @@ package org.rpc.remoting.transport.netty.codec;
 
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.compress.Compress;
 import org.rpc.enums.CompressTypeEnum;
-import org.rpc.enums.SerializationTypeEnum;
-import org.rpc.extension.ExtensionLoader;
 import org.rpc.remoting.constants.RpcConstants;
 import org.rpc.remoting.dto.RpcMessage;
 import org.rpc.remoting.dto.RpcRequest;
 import org.rpc.remoting.dto.RpcResponse;
+import org.rpc.remoting.dto.RpcStreamCredit;
+import org.rpc.remoting.transport.netty.server.AdmissionController;
 import org.rpc.serialize.Serializer;
 
 import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * custom protocol decoder
@@ -36,6 +40,10 @@ import java.util.Arrays;
  * <p>
  * {@link LengthFieldBasedFrameDecoder} is a length-based decoder , used to solve TCP unpacking and sticking problems.
  * </p>
+ * <p>
+ * 同时支持 v2 协议（格式见 {@link RpcMessageEncoder}）。v2 的帧长度是变长整数，{@link LengthFieldBasedFrameDecoder} 处理不了，
+ * 由这里自己拆帧：前两个字节是 'g''r' 且第三个字节是 2 的就是 v2 帧，其余的按 v1 处理
+ * </p>
  *
  * @author wangtao
  * @createTime on 2020/10/2
@@ -43,12 +51,23 @@ import java.util.Arrays;
  */
 @Slf4j
 public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
+    //服务端的准入控制，客户端为 null
+    private final AdmissionController admissionController;
+
     public RpcMessageDecoder() {
+        this((AdmissionController) null);
+    }
+
+    /**
+     * 服务端使用：读完请求的消息头之后先经过准入控制，被拒绝的请求不反序列化消息体
+     */
+    public RpcMessageDecoder(AdmissionController admissionController) {
         // lengthFieldOffset: magic code is 4B, and version is 1B, and then full length. so value is 5
         // lengthFieldLength: full length is 4B. so value is 4
         // lengthAdjustment: full length include all data and read 9 bytes before, so the left length is (fullLength-9). so values is -9
         // initialBytesToStrip: we will check magic code and version manually, so do not strip any bytes. so values is 0
-        this(RpcConstants.MAX_FRAME_LENGTH, 5, 4, -9, 0);
+        super(RpcConstants.MAX_FRAME_LENGTH, 5, 4, -9, 0);
+        this.admissionController = admissionController;
     }
 
     /**
@@ -64,16 +83,20 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
     public RpcMessageDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
                              int lengthAdjustment, int initialBytesToStrip) {
         super(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip);
+        this.admissionController = null;
     }
 
     @Override
     protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (isV2Frame(in)) {
+            return decodeV2(ctx, in);
+        }
         Object decoded = super.decode(ctx, in);
         if (decoded instanceof ByteBuf) {
             ByteBuf frame = (ByteBuf) decoded;
             if (frame.readableBytes() >= RpcConstants.TOTAL_LENGTH) {
                 try {
-                    return decodeFrame(frame);
+                    return decodeFrame(frame, ctx.alloc());
                 } catch (Exception e) {
                     log.error("Decode frame error!", e);
                     throw e;
@@ -85,7 +108,54 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         }
         return decoded;
     }
-    private Object decodeFrame(ByteBuf in) {
+
+    private boolean isV2Frame(ByteBuf in) {
+        int start = in.readerIndex();
+        return in.readableBytes() > RpcConstants.MAGIC_NUMBER_V2.length
+                && in.getByte(start) == RpcConstants.MAGIC_NUMBER_V2[0]
+                && in.getByte(start + 1) == RpcConstants.MAGIC_NUMBER_V2[1]
+                && in.getByte(start + 2) == RpcConstants.VERSION_V2;
+    }
+
+    /**
+     * 拆出一个完整的 v2 帧并解码，数据不够一帧时返回 null 等待更多数据
+     */
+    private Object decodeV2(ChannelHandlerContext ctx, ByteBuf in) {
+        int index = in.readerIndex() + RpcConstants.MAGIC_NUMBER_V2.length + 1;
+        int end = in.writerIndex();
+        // 读取变长的帧长度，不移动 readerIndex
+        int frameLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (index >= end) {
+                return null;
+            }
+            if (shift > 28) {
+                throw new CorruptedFrameException("malformed frame length");
+            }
+            byte b = in.getByte(index++);
+            frameLength |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (frameLength < 0 || frameLength > RpcConstants.MAX_FRAME_LENGTH) {
+            throw new TooLongFrameException("Adjusted frame length exceeds " + RpcConstants.MAX_FRAME_LENGTH + ": " + frameLength);
+        }
+        if (end - index < frameLength) {
+            return null;
+        }
+        in.readerIndex(index);
+        // 切片在 decode 返回前就用完了，不需要 retain
+        ByteBuf frame = in.readSlice(frameLength);
+        try {
+            return decodeFrameV2(frame, ctx.alloc());
+        } catch (Exception e) {
+            log.error("Decode frame error!", e);
+            throw e;
+        }
+    }
+
+    private Object decodeFrame(ByteBuf in, ByteBufAllocator alloc) {
         // note: must read ByteBuf in order
         checkMagicNumber(in);
         checkVersion(in);
@@ -94,66 +164,160 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         byte messageType = in.readByte();
         byte codecType = in.readByte();
         byte compressType = in.readByte();
-        int requestId = in.readInt();
+        long requestId = in.readUnsignedInt();
         //rpcMessage 有lombok 所以可以直接builder
         RpcMessage rpcMessage = RpcMessage.builder()
+                .version(RpcConstants.VERSION_V1)
                 .codec(codecType)
+                .compress(compressType)
                 .requestId(requestId)
                 .messageType(messageType).build();
+        decodeBody(in, fullLength - RpcConstants.HEAD_LENGTH, rpcMessage, alloc);
+        return rpcMessage;
+
+    }
+
+    private Object decodeFrameV2(ByteBuf in, ByteBufAllocator alloc) {
+        byte messageType = in.readByte();
+        byte codecType = in.readByte();
+        byte compressType = in.readByte();
+        long requestId = VarIntUtil.readVarInt64(in);
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .version(RpcConstants.VERSION_V2)
+                .codec(codecType)
+                .compress(compressType)
+                .requestId(requestId)
+                .messageType(messageType).build();
+        readExtensions(in, rpcMessage);
+        decodeBody(in, in.readableBytes(), rpcMessage, alloc);
+        return rpcMessage;
+    }
+
+    private void readExtensions(ByteBuf in, RpcMessage rpcMessage) {
+        int length = VarIntUtil.readVarInt32(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new CorruptedFrameException("illegal extensions length: " + length);
+        }
+        int end = in.readerIndex() + length;
+        while (in.readerIndex() < end) {
+            byte type = in.readByte();
+            int valueLength = VarIntUtil.readVarInt32(in);
+            int valueEnd = in.readerIndex() + valueLength;
+            if (valueLength < 0 || valueEnd > end) {
+                throw new CorruptedFrameException("illegal extension length: " + valueLength);
+            }
+            switch (type) {
+                case RpcConstants.EXTENSION_DEADLINE:
+                    rpcMessage.setDeadline(System.currentTimeMillis() + VarIntUtil.readVarInt64(in));
+                    break;
+                case RpcConstants.EXTENSION_TRACE_ID:
+                    rpcMessage.setTraceId(in.readCharSequence(valueLength, RpcConstants.DEFAULT_CHARSET).toString());
+                    break;
+                case RpcConstants.EXTENSION_METHOD_ID:
+                    rpcMessage.setMethodId(VarIntUtil.readVarInt32(in));
+                    break;
+                case RpcConstants.EXTENSION_ORDER_KEY:
+                    rpcMessage.setOrderKey(in.readInt());
+                    break;
+                case RpcConstants.EXTENSION_ATTACHMENT:
+                    int keyLength = VarIntUtil.readVarInt32(in);
+                    if (keyLength < 0 || in.readerIndex() + keyLength > valueEnd) {
+                        throw new CorruptedFrameException("illegal attachment key length: " + keyLength);
+                    }
+                    String key = in.readCharSequence(keyLength, RpcConstants.DEFAULT_CHARSET).toString();
+                    String value = in.readCharSequence(valueEnd - in.readerIndex(), RpcConstants.DEFAULT_CHARSET).toString();
+                    if (rpcMessage.getAttachments() == null) {
+                        rpcMessage.setAttachments(new HashMap<>());
+                    }
+                    rpcMessage.getAttachments().put(key, value);
+                    break;
+                default:
+                    // 不认识的扩展直接跳过，兼容更新版本的对端
+                    break;
+            }
+            in.readerIndex(valueEnd);
+        }
+    }
+
+    private void decodeBody(ByteBuf in, int bodyLength, RpcMessage rpcMessage, ByteBufAllocator alloc) {
+        byte messageType = rpcMessage.getMessageType();
         //如果是心跳检测包
         if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
             //发送则消息是ping
             rpcMessage.setData(RpcConstants.PING);
-            return rpcMessage;
+            return;
         }
         //如果是心跳相应包 则数据是Ping
         if (messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
             rpcMessage.setData(RpcConstants.PONG);
-            return rpcMessage;
+            return;
         }
+        if (messageType == RpcConstants.REQUEST_TYPE && admissionController != null && !admissionController.tryAdmit()) {
+            //服务端过载，跳过消息体，不解压也不反序列化
+            in.skipBytes(bodyLength);
+            rpcMessage.setOverloaded(true);
+            return;
+        }
+        // 先查出序列化实现，未知的类型在解压之前就直接失败
+        Serializer serializer = CodecRegistry.getSerializer(rpcMessage.getCodec());
         //消息体主体
-        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
         if (bodyLength > 0) {
-            byte[] bs = new byte[bodyLength];
-            in.readBytes(bs);
-            // 根据压缩类型解压缩
-            String compressName = CompressTypeEnum.getName(compressType);
-            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                    .getExtension(compressName);
-            bs = compress.decompress(bs);
-            // 然后反序列化
-            String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-            log.info("codec name: [{}] ", codecName);
-            Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
-                    .getExtension(codecName);
-            //根据请求还是相应类型分别进行反序列化
-            if (messageType == RpcConstants.REQUEST_TYPE) {
-                RpcRequest tmpValue = serializer.deserialize(bs, RpcRequest.class);
-                rpcMessage.setData(tmpValue);
+            // 直接在帧上切片，不再拷贝成 byte[]；帧在 decode() 中统一释放
+            ByteBuf body = in.readSlice(bodyLength);
+            byte compressType = rpcMessage.getCompress();
+            if (compressType == CompressTypeEnum.NONE.getCode()) {
+                // 没有压缩，直接从切片反序列化
+                rpcMessage.setData(deserializeBody(body, rpcMessage, serializer));
             } else {
-                RpcResponse tmpValue = serializer.deserialize(bs, RpcResponse.class);
-                rpcMessage.setData(tmpValue);
+                // 根据压缩类型解压缩，解压结果写进池化的 ByteBuf
+                Compress compress = CodecRegistry.getCompress(compressType);
+                ByteBuf decompressed = compress.preferHeapBuffer() ? alloc.heapBuffer(bodyLength) : alloc.buffer(bodyLength);
+                try {
+                    compress.decompress(body, decompressed);
+                    rpcMessage.setData(deserializeBody(decompressed, rpcMessage, serializer));
+                } finally {
+                    decompressed.release();
+                }
             }
         }
-        return rpcMessage;
+    }
 
+    private Object deserializeBody(ByteBuf body, RpcMessage rpcMessage, Serializer serializer) {
+        byte messageType = rpcMessage.getMessageType();
+        if (messageType == RpcConstants.REQUEST_TYPE && rpcMessage.getMethodId() > 0) {
+            //只带方法编号的请求，消息体只有参数，方法信息由 MethodDictionaryHandler 按编号还原
+            return RpcRequest.builder()
+                    .methodId(rpcMessage.getMethodId())
+                    .parameters(serializer.deserialize(body, Object[].class))
+                    .orderKey(rpcMessage.getOrderKey())
+                    .build();
+        }
+        //根据请求还是相应类型分别进行反序列化
+        if (messageType == RpcConstants.REQUEST_TYPE || messageType == RpcConstants.STREAM_REQUEST_TYPE) {
+            return serializer.deserialize(body, RpcRequest.class);
+        }
+        if (messageType == RpcConstants.STREAM_CREDIT_TYPE) {
+            return serializer.deserialize(body, RpcStreamCredit.class);
+        }
+        //响应、流式调用的数据帧和结束帧
+        return serializer.deserialize(body, RpcResponse.class);
     }
 
     private void checkVersion(ByteBuf in) {
         // 读取版本号并且比较
         byte version = in.readByte();
-        if (version != RpcConstants.VERSION) {
+        if (version != RpcConstants.VERSION_V1) {
             throw new RuntimeException("version isn't compatible" + version);
         }
     }
 
     private void checkMagicNumber(ByteBuf in) {
-        // 读取前4位魔数，并且进行比较
+        // 读取前4位魔数，并且进行比较，逐字节比较避免每帧分配一个数组
         int len = RpcConstants.MAGIC_NUMBER.length;
-        byte[] tmp = new byte[len];
-        in.readBytes(tmp);
         for (int i = 0; i < len; i++) {
-            if (tmp[i] != RpcConstants.MAGIC_NUMBER[i]) {
+            if (in.readByte() != RpcConstants.MAGIC_NUMBER[i]) {
+                byte[] tmp = new byte[len];
+                in.getBytes(in.readerIndex() - i - 1, tmp);
                 throw new IllegalArgumentException("Unknown magic code: " + Arrays.toString(tmp));
             }
         }
@@ -3,24 +3,25 @@ package org.rpc.remoting.transport.netty.codec;
 
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.compress.Compress;
 import org.rpc.enums.CompressTypeEnum;
-import org.rpc.enums.SerializationTypeEnum;
-import org.rpc.extension.ExtensionLoader;
 import org.rpc.remoting.constants.RpcConstants;
 import org.rpc.remoting.dto.RpcMessage;
 import org.rpc.serialize.Serializer;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 
 
 /**
  * <p>
  * custom protocol decoder
  * <p>
+ * v1:
  * <pre>
  *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
  *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
@@ -35,6 +36,15 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
  * body（object类型数据）
  * </pre>
+ * v2:
+ * <pre>
+ *   +-------+-------+--------------+-------------+-------+----------+----------------+----------------+-----------+------+
+ *   | 'g''r'|version| frame length | messageType | codec | compress |   requestId    | ext length     | extensions | body |
+ *   |  2B   | 1B=2  |  varint32    |     1B      |  1B   |    1B    |   varint64     | varint32       |    TLV     |      |
+ *   +-------+-------+--------------+-------------+-------+----------+----------------+----------------+-----------+------+
+ * frame length 是 messageType 到 body 结尾的长度
+ * extension: 1B type | varint32 length | value，接收方跳过不认识的类型
+ * </pre>
  *
  * @author WangTao
  * @createTime on 2020/10/2
@@ -46,61 +56,197 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 @Slf4j
 public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
-    private static final AtomicInteger ATOMIC_INTEGER = new AtomicInteger(0);
+    /**
+     * v2 帧的前缀：魔数、版本号和最长 5 个字节的帧长度
+     */
+    private static final int V2_MAX_PREFIX_LENGTH = RpcConstants.MAGIC_NUMBER_V2.length + 1 + 5;
 
     @Override
     protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+        int readerIndex = out.readerIndex();
+        int writerIndex = out.writerIndex();
         try {
-            //魔数
-            out.writeBytes(RpcConstants.MAGIC_NUMBER);
-            //版本
-            out.writeByte(RpcConstants.VERSION);
-            // leave a place to write the value of full length
-            //全部的值4位
-            out.writerIndex(out.writerIndex() + 4);
-            //messageType 1位
-            byte messageType = rpcMessage.getMessageType();
-            out.writeByte(messageType);
-            //序列化类型
-            out.writeByte(rpcMessage.getCodec());
-            //压缩类型
-            out.writeByte(CompressTypeEnum.GZIP.getCode());
-            //请求ID 自增的
-            out.writeInt(ATOMIC_INTEGER.getAndIncrement());
-            // build full length
-            byte[] bodyBytes = null;
-            int fullLength = RpcConstants.HEAD_LENGTH;
-
-            //判断message是不是心跳报文
-            // 如果MessageType不是心跳报文，则全长=头部长度+正文长度
-            if (messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE
-                    && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
-                // 将rpc的message序列化
-                String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-                log.info("codec name: [{}] ", codecName);
-                Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
-                        .getExtension(codecName);
-                bodyBytes = serializer.serialize(rpcMessage.getData());
-                // compress the bytes
-                //序列化之后的消息进行压缩
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
-                Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                        .getExtension(compressName);
-                bodyBytes = compress.compress(bodyBytes);
-                //全长=头部长度+正文长度
-                fullLength += bodyBytes.length;
-            }
-            //写入消息体
-            if (bodyBytes != null) {
-                out.writeBytes(bodyBytes);
+            if (rpcMessage.getVersion() == RpcConstants.VERSION_V1) {
+                encodeV1(ctx, rpcMessage, out);
+            } else {
+                encodeV2(ctx, rpcMessage, out);
             }
-            int writeIndex = out.writerIndex();
-            out.writerIndex(writeIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
-            out.writeInt(fullLength);
-            out.writerIndex(writeIndex);
         } catch (Exception e) {
             log.error("Encode request error!", e);
+            // 序列化或者压缩到一半失败时 out 里是半个帧（v2 还有留给前缀的空字节），写出去对端就拆不开后面的帧了。
+            // 丢掉写了一半的数据并抛出异常，这次写入的 promise 失败，只有这一个调用失败
+            out.setIndex(readerIndex, writerIndex);
+            throw e instanceof EncoderException ? (EncoderException) e : new EncoderException(e);
         }
     }
-}
 
+    private void encodeV1(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+        //魔数
+        out.writeBytes(RpcConstants.MAGIC_NUMBER);
+        //版本
+        out.writeByte(RpcConstants.VERSION_V1);
+        // leave a place to write the value of full length
+        //全部的值4位
+        out.writerIndex(out.writerIndex() + 4);
+        //messageType 1位
+        byte messageType = rpcMessage.getMessageType();
+        out.writeByte(messageType);
+        //序列化类型
+        out.writeByte(rpcMessage.getCodec());
+        //压缩类型 先占位，等消息体写完、确定了实际使用的压缩方式再回填
+        int compressIndex = out.writerIndex();
+        out.writeByte(CompressTypeEnum.NONE.getCode());
+        //请求ID v1 只有 4 个字节，只写低 32 位
+        out.writeInt((int) rpcMessage.getRequestId());
+        // build full length
+        int fullLength = RpcConstants.HEAD_LENGTH;
+
+        //判断message是不是心跳报文
+        // 如果MessageType不是心跳报文，则全长=头部长度+正文长度
+        if (!isHeartbeat(messageType)) {
+            int bodyStart = out.writerIndex();
+            // 消息头里写的是实际使用的压缩方式
+            out.setByte(compressIndex, writeBody(ctx, rpcMessage, out));
+            //全长=头部长度+正文长度
+            fullLength += out.writerIndex() - bodyStart;
+        }
+        int writeIndex = out.writerIndex();
+        out.writerIndex(writeIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
+        out.writeInt(fullLength);
+        out.writerIndex(writeIndex);
+    }
+
+    private void encodeV2(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+        // 帧长度是变长的，要等消息体写完才知道占几个字节，所以先按最长的前缀留出空间，
+        // 写完之后把前缀紧贴着帧内容写回去，再把 readerIndex 移到前缀开头，跳过多留的字节。
+        // MessageToByteEncoder 每条消息都会分配一个新的 out，这里移动 readerIndex 不会影响别的数据
+        int frameStart = out.writerIndex() + V2_MAX_PREFIX_LENGTH;
+        out.writerIndex(frameStart);
+        byte messageType = rpcMessage.getMessageType();
+        out.writeByte(messageType);
+        out.writeByte(rpcMessage.getCodec());
+        int compressIndex = out.writerIndex();
+        out.writeByte(CompressTypeEnum.NONE.getCode());
+        VarIntUtil.writeVarInt64(out, rpcMessage.getRequestId());
+        writeExtensions(rpcMessage, out);
+        if (!isHeartbeat(messageType)) {
+            out.setByte(compressIndex, writeBody(ctx, rpcMessage, out));
+        }
+        int frameEnd = out.writerIndex();
+        int frameLength = frameEnd - frameStart;
+        int headerStart = frameStart - RpcConstants.MAGIC_NUMBER_V2.length - 1 - VarIntUtil.varInt32Size(frameLength);
+        out.writerIndex(headerStart);
+        out.writeBytes(RpcConstants.MAGIC_NUMBER_V2);
+        out.writeByte(RpcConstants.VERSION_V2);
+        VarIntUtil.writeVarInt32(out, frameLength);
+        out.writerIndex(frameEnd);
+        out.readerIndex(headerStart);
+    }
+
+    /**
+     * 写入 v2 的头部扩展：先写扩展的总长度，再逐个写 type | length | value
+     */
+    private void writeExtensions(RpcMessage rpcMessage, ByteBuf out) {
+        // 截止时间换算成剩余的毫秒数传输，避免两端时钟不一致
+        long timeout = rpcMessage.getDeadline() > 0 ? Math.max(0, rpcMessage.getDeadline() - System.currentTimeMillis()) : -1;
+        String traceId = rpcMessage.getTraceId();
+        Map<String, String> attachments = rpcMessage.getAttachments();
+        int methodId = rpcMessage.getMethodId();
+        Integer orderKey = rpcMessage.getOrderKey();
+        int length = 0;
+        if (methodId > 0) {
+            length += extensionLength(VarIntUtil.varInt32Size(methodId));
+            if (orderKey != null) {
+                length += extensionLength(4);
+            }
+        }
+        if (timeout >= 0) {
+            length += extensionLength(VarIntUtil.varInt64Size(timeout));
+        }
+        if (traceId != null) {
+            length += extensionLength(ByteBufUtil.utf8Bytes(traceId));
+        }
+        if (attachments != null) {
+            for (Map.Entry<String, String> entry : attachments.entrySet()) {
+                length += extensionLength(attachmentLength(entry));
+            }
+        }
+        VarIntUtil.writeVarInt32(out, length);
+        if (methodId > 0) {
+            out.writeByte(RpcConstants.EXTENSION_METHOD_ID);
+            VarIntUtil.writeVarInt32(out, VarIntUtil.varInt32Size(methodId));
+            VarIntUtil.writeVarInt32(out, methodId);
+            if (orderKey != null) {
+                out.writeByte(RpcConstants.EXTENSION_ORDER_KEY);
+                VarIntUtil.writeVarInt32(out, 4);
+                out.writeInt(orderKey);
+            }
+        }
+        if (timeout >= 0) {
+            out.writeByte(RpcConstants.EXTENSION_DEADLINE);
+            VarIntUtil.writeVarInt32(out, VarIntUtil.varInt64Size(timeout));
+            VarIntUtil.writeVarInt64(out, timeout);
+        }
+        if (traceId != null) {
+            out.writeByte(RpcConstants.EXTENSION_TRACE_ID);
+            VarIntUtil.writeVarInt32(out, ByteBufUtil.utf8Bytes(traceId));
+            ByteBufUtil.writeUtf8(out, traceId);
+        }
+        if (attachments != null) {
+            // value: varint32 key length | key | value
+            for (Map.Entry<String, String> entry : attachments.entrySet()) {
+                out.writeByte(RpcConstants.EXTENSION_ATTACHMENT);
+                VarIntUtil.writeVarInt32(out, attachmentLength(entry));
+                VarIntUtil.writeVarInt32(out, ByteBufUtil.utf8Bytes(entry.getKey()));
+                ByteBufUtil.writeUtf8(out, entry.getKey());
+                ByteBufUtil.writeUtf8(out, entry.getValue());
+            }
+        }
+    }
+
+    private static int extensionLength(int valueLength) {
+        return 1 + VarIntUtil.varInt32Size(valueLength) + valueLength;
+    }
+
+    private static int attachmentLength(Map.Entry<String, String> entry) {
+        int keyLength = ByteBufUtil.utf8Bytes(entry.getKey());
+        return VarIntUtil.varInt32Size(keyLength) + keyLength + ByteBufUtil.utf8Bytes(entry.getValue());
+    }
+
+    /**
+     * 序列化消息体并按需压缩写入 out
+     *
+     * @return 实际使用的压缩方式
+     */
+    private byte writeBody(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+        // 将rpc的message序列化
+        Serializer serializer = CodecRegistry.getSerializer(rpcMessage.getCodec());
+        byte compressType = rpcMessage.getCompress();
+        if (compressType == CompressTypeEnum.NONE.getCode()) {
+            // 不压缩时直接序列化进 out
+            serializer.serialize(rpcMessage.getData(), out);
+            return compressType;
+        }
+        // 序列化到池化的临时 ByteBuf 中，再压缩直接写入 out，整个过程不产生 byte[]
+        Compress compress = CodecRegistry.getCompress(compressType);
+        ByteBuf bodyBuf = compress.preferHeapBuffer() ? ctx.alloc().heapBuffer() : ctx.alloc().buffer();
+        try {
+            serializer.serialize(rpcMessage.getData(), bodyBuf);
+            if (bodyBuf.readableBytes() < rpcMessage.getCompressThreshold()) {
+                // 消息体太小，压缩得不偿失
+                out.writeBytes(bodyBuf);
+                return CompressTypeEnum.NONE.getCode();
+            }
+            //序列化之后的消息进行压缩
+            compress.compress(bodyBuf, out);
+            return compressType;
+        } finally {
+            bodyBuf.release();
+        }
+    }
+
+    private static boolean isHeartbeat(byte messageType) {
+        return messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE
+                || messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE;
+    }
+}
@@ -0,0 +1,105 @@
+package org.rpc.remoting.transport.netty.flush;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    合并 flush，减少系统调用。
+    每次 flush 只计数，不立即写到 socket：攒够 maxBatchSize 次立即 flush，否则在 EventLoop 当前这一轮任务执行完
+    （delayMicros 为 0 时）或者等待 delayMicros 微秒之后统一 flush 一次。
+    其他线程调用 writeAndFlush 时，写操作本身就是以任务的形式提交到 EventLoop 的，排在同一轮里的写会被合并成一次 flush。
+    一个连接一个实例，所有状态只在这个连接的 EventLoop 上访问
+ */
+public class BatchFlushHandler extends ChannelDuplexHandler {
+    private final int maxBatchSize;
+    private final long delayMicros;
+    private final FlushMetrics flushMetrics;
+    private int pendingFlushes;
+    private boolean flushScheduled;
+    private ChannelHandlerContext ctx;
+    private final Runnable flushTask = () -> {
+        flushScheduled = false;
+        flushIfNeeded();
+    };
+
+    /**
+     * @param maxBatchSize 最多合并多少次 flush
+     * @param delayMicros  最多延迟多久 flush，0 表示在 EventLoop 当前这一轮任务结束时 flush
+     * @param flushMetrics 统计，可以多个连接共用
+     */
+    public BatchFlushHandler(int maxBatchSize, long delayMicros, FlushMetrics flushMetrics) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("delayMicros must not be negative: " + delayMicros);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.delayMicros = delayMicros;
+        this.flushMetrics = flushMetrics;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (++pendingFlushes >= maxBatchSize) {
+            flushIfNeeded();
+            return;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            if (delayMicros > 0) {
+                ctx.executor().schedule(flushTask, delayMicros, TimeUnit.MICROSECONDS);
+            } else {
+                ctx.executor().execute(flushTask);
+            }
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 出站缓冲区满了，先把攒着的数据写出去
+        if (!ctx.channel().isWritable()) {
+            flushIfNeeded();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfNeeded();
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfNeeded();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded();
+    }
+
+    private void flushIfNeeded() {
+        if (pendingFlushes > 0) {
+            flushMetrics.record(pendingFlushes);
+            pendingFlushes = 0;
+            ctx.flush();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.rpc.remoting.transport.netty.flush;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并 flush 的统计：调用方请求的 flush 次数和实际执行的 flush 次数，二者之比就是平均每次系统调用写出的消息数
+ */
+public class FlushMetrics {
+    private final LongAdder requestedFlushes = new LongAdder();
+    private final LongAdder actualFlushes = new LongAdder();
+
+    void record(int batchSize) {
+        requestedFlushes.add(batchSize);
+        actualFlushes.increment();
+    }
+
+    public long getRequestedFlushes() {
+        return requestedFlushes.sum();
+    }
+
+    public long getActualFlushes() {
+        return actualFlushes.sum();
+    }
+
+    /**
+     * 平均每次实际 flush 合并了多少次 flush 请求
+     */
+    public double getAverageBatchSize() {
+        long actual = actualFlushes.sum();
+        return actual == 0 ? 0 : (double) requestedFlushes.sum() / actual;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FlushMetrics(requested=%d, actual=%d, averageBatchSize=%.2f)",
+                getRequestedFlushes(), getActualFlushes(), getAverageBatchSize());
+    }
+}
@@ -0,0 +1,139 @@
+package org.rpc.remoting.transport.netty.server;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.transport.netty.server.dispatch.DispatcherRegistry;
+import org.rpc.utils.RpcConfigUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    服务端的准入控制：解码器读完消息头之后、反序列化消息体之前决定是否接收一个请求。
+    被拒绝的请求不反序列化，直接回复 OVERLOADED，客户端换一个服务提供者重试；服务端过载时快速失败，而不是让排队时间无限增长。
+    三个条件都可以单独开启，满足任何一个就拒绝：
+    1. 在途的请求数（所有服务排队、正在执行和等待异步结果的请求）达到上限
+    2. 排队的请求数达到上限
+    3. 排队时间，参考 CoDel：按时间窗口统计共用线程池里请求的最短排队时间，
+       整个窗口里最短的排队时间都超过目标值，说明队列一直没有排空，不是短暂的突发流量；
+       这时只要还有请求在排队就拒绝新的请求，直到某个窗口的最短排队时间回到目标值以下
+ */
+@Slf4j
+public class AdmissionController {
+    private final DispatcherRegistry registry;
+    private final int maxInflight;
+    private final int maxQueued;
+    private final long targetDelayNanos;
+    private final long intervalNanos;
+    //当前窗口里最短的排队时间和窗口的结束时间
+    private final AtomicLong windowMinDelay = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong windowEnd = new AtomicLong();
+    //上一个窗口里队列一直没有排空
+    private volatile boolean dropping;
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param maxInflight       在途请求数上限，0 表示不限制
+     * @param maxQueued         排队请求数上限，0 表示不限制
+     * @param targetDelayMillis 排队时间的目标值（毫秒），0 表示不按排队时间判断
+     * @param intervalMillis    统计最短排队时间的窗口（毫秒）
+     */
+    public AdmissionController(DispatcherRegistry registry, int maxInflight, int maxQueued,
+                               long targetDelayMillis, long intervalMillis) {
+        if (maxInflight < 0 || maxQueued < 0 || targetDelayMillis < 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException(String.format("illegal admission limits: inflight %d, queued %d, target delay %d, interval %d",
+                    maxInflight, maxQueued, targetDelayMillis, intervalMillis));
+        }
+        this.registry = registry;
+        this.maxInflight = maxInflight;
+        this.maxQueued = maxQueued;
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.windowEnd.set(System.nanoTime() + intervalNanos);
+        if (targetDelayNanos > 0) {
+            registry.setQueueDelayListener(this::recordQueueDelay);
+        }
+    }
+
+    /**
+     * 按 rpc.server.admission.* 配置创建
+     *
+     * @return 没有开启任何条件时返回 null
+     */
+    public static AdmissionController fromConfig(DispatcherRegistry registry) {
+        int maxInflight = RpcConfigUtil.getInt(RpcConfigEnum.SERVER_ADMISSION_MAX_INFLIGHT, 0);
+        int maxQueued = RpcConfigUtil.getInt(RpcConfigEnum.SERVER_ADMISSION_MAX_QUEUED, 0);
+        long targetDelayMillis = RpcConfigUtil.getLong(RpcConfigEnum.SERVER_ADMISSION_TARGET_DELAY, 0);
+        long intervalMillis = RpcConfigUtil.getLong(RpcConfigEnum.SERVER_ADMISSION_INTERVAL, RpcConstants.DEFAULT_ADMISSION_INTERVAL_MILLIS);
+        if (maxInflight <= 0 && maxQueued <= 0 && targetDelayMillis <= 0) {
+            return null;
+        }
+        AdmissionController controller = new AdmissionController(registry, Math.max(0, maxInflight), Math.max(0, maxQueued),
+                Math.max(0, targetDelayMillis), intervalMillis);
+        log.info("server admission control: [{}]", controller);
+        return controller;
+    }
+
+    /**
+     * 在 I/O 线程上、只看到请求的消息头时调用
+     *
+     * @return false 表示服务端过载，请求应该直接以 OVERLOADED 拒绝
+     */
+    public boolean tryAdmit() {
+        boolean dropping = this.dropping;
+        if (maxQueued > 0 || maxInflight > 0 || dropping) {
+            int queueDepth = registry.getQueueDepth();
+            if (maxQueued > 0 && queueDepth >= maxQueued
+                    || maxInflight > 0 && queueDepth + registry.getActiveCount() >= maxInflight
+                    || dropping && queueDepth > 0) {
+                rejectedCount.increment();
+                return false;
+            }
+        }
+        admittedCount.increment();
+        return true;
+    }
+
+    private void recordQueueDelay(long delayNanos) {
+        long min;
+        do {
+            min = windowMinDelay.get();
+        } while (delayNanos < min && !windowMinDelay.compareAndSet(min, delayNanos));
+        long now = System.nanoTime();
+        long end = windowEnd.get();
+        //窗口结束后第一个报告排队时间的线程负责切换窗口
+        if (now - end >= 0 && windowEnd.compareAndSet(end, now + intervalNanos)) {
+            boolean overloaded = windowMinDelay.getAndSet(Long.MAX_VALUE) > targetDelayNanos;
+            if (overloaded != dropping) {
+                log.warn("server queue delay {} target [{}ms], {} shedding requests", overloaded ? "above" : "back under",
+                        TimeUnit.NANOSECONDS.toMillis(targetDelayNanos), overloaded ? "start" : "stop");
+                dropping = overloaded;
+            }
+        }
+    }
+
+    /**
+     * 排队时间是不是一直超过目标值，正在拒绝请求
+     */
+    public boolean isDropping() {
+        return dropping;
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("admission(maxInflight=%d, maxQueued=%d, targetDelay=%dms, interval=%dms, admitted=%d, rejected=%d, dropping=%s)",
+                maxInflight, maxQueued, TimeUnit.NANOSECONDS.toMillis(targetDelayNanos), TimeUnit.NANOSECONDS.toMillis(intervalNanos),
+                getAdmittedCount(), getRejectedCount(), dropping);
+    }
+}
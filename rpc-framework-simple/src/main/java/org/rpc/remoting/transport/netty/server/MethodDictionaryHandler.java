@@ -0,0 +1,80 @@
+package org.rpc.remoting.transport.netty.server;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.RpcResponseCodeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.dto.RpcMessage;
+import org.rpc.remoting.dto.RpcRequest;
+import org.rpc.remoting.dto.RpcResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    服务端的方法字典，每个连接一个实例。
+    客户端第一次调用某个方法时会带上编号和完整的方法信息，这里记下来；之后只带编号的请求在这里还原成完整的请求。
+    必须在 I/O 线程上按收到的顺序处理，所以放在业务线程池的 handler 之前，HashMap 也只会被这个连接的 EventLoop 访问
+ */
+@Slf4j
+public class MethodDictionaryHandler extends ChannelInboundHandlerAdapter {
+    private final Map<Integer, RpcRequest> methods = new HashMap<>();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        //被准入控制拒绝的请求没有消息体，不知道有没有带方法信息，客户端收到 OVERLOADED 之后会重新带上
+        if (msg instanceof RpcMessage && ((RpcMessage) msg).getMessageType() == RpcConstants.REQUEST_TYPE
+                && !((RpcMessage) msg).isOverloaded()) {
+            RpcMessage rpcMessage = (RpcMessage) msg;
+            RpcRequest rpcRequest = (RpcRequest) rpcMessage.getData();
+            int methodId = rpcRequest.getMethodId();
+            if (methodId > 0 && methodId <= RpcConstants.MAX_METHOD_ID) {
+                if (rpcRequest.getInterfaceName() != null) {
+                    // 带着完整方法信息的请求，记下编号，参数不用保存
+                    methods.put(methodId, RpcRequest.builder()
+                            .methodId(methodId)
+                            .interfaceName(rpcRequest.getInterfaceName())
+                            .methodName(rpcRequest.getMethodName())
+                            .paramTypes(rpcRequest.getParamTypes())
+                            .group(rpcRequest.getGroup())
+                            .version(rpcRequest.getVersion())
+                            .build());
+                } else {
+                    RpcRequest method = methods.get(methodId);
+                    if (method == null) {
+                        log.error("unknown method id [{}] from [{}]", methodId, ctx.channel().remoteAddress());
+                        ctx.writeAndFlush(unknownMethodResponse(rpcMessage)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                        return;
+                    }
+                    rpcMessage.setData(RpcRequest.builder()
+                            .methodId(methodId)
+                            .interfaceName(method.getInterfaceName())
+                            .methodName(method.getMethodName())
+                            .paramTypes(method.getParamTypes())
+                            .group(method.getGroup())
+                            .version(method.getVersion())
+                            .parameters(rpcRequest.getParameters())
+                            .orderKey(rpcRequest.getOrderKey())
+                            .build());
+                }
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private RpcMessage unknownMethodResponse(RpcMessage request) {
+        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+        rpcResponse.setMessage("unknown method id " + ((RpcRequest) request.getData()).getMethodId());
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        rpcMessage.setCodec(request.getCodec());
+        rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+        rpcMessage.setData(rpcResponse);
+        return rpcMessage;
+    }
+}
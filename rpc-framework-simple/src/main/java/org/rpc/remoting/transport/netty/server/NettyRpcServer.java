@@ -2,9 +2,7 @@ package org.rpc.remoting.transport.netty.server;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -13,16 +11,28 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.config.CustomShutdownHook;
 import org.rpc.config.RpcServiceConfig;
+import org.rpc.enums.RpcConfigEnum;
 import org.rpc.factory.SingletonFactory;
 import org.rpc.provider.ServiceProvider;
 import org.rpc.provider.impl.ZkServiceProviderImpl;
+import org.rpc.remoting.constants.RpcConstants;
 import org.rpc.remoting.transport.netty.codec.RpcMessageDecoder;
 import org.rpc.remoting.transport.netty.codec.RpcMessageEncoder;
+import org.rpc.remoting.transport.netty.flush.BatchFlushHandler;
+import org.rpc.remoting.transport.netty.flush.FlushMetrics;
+import org.rpc.remoting.transport.netty.server.dispatch.DispatcherRegistry;
+import org.rpc.remoting.transport.netty.server.dispatch.ServiceDispatcher;
+import org.rpc.remoting.transport.netty.transport.NettyTransport;
+import org.rpc.utils.RpcConfigUtil;
 import org.rpc.utils.RuntimeUtil;
 import org.rpc.utils.threadpool.ThreadPoolFactoryUtil;
 import org.springframework.stereotype.Component;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -33,6 +43,9 @@ public class NettyRpcServer {
         单例模式，基于zk的服务发现和服务提供
      */
     private final ServiceProvider serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+    private final FlushMetrics flushMetrics = new FlushMetrics();
+    private volatile DispatcherRegistry dispatcherRegistry;
+    private volatile AdmissionController admissionController;
 
     /*
         将服务发布到zk中
@@ -40,13 +53,39 @@ public class NettyRpcServer {
     public void registerService(RpcServiceConfig rpcServiceConfig) {
         serviceProvider.publishService(rpcServiceConfig);
     }
+    public FlushMetrics getFlushMetrics() {
+        return flushMetrics;
+    }
+
+    /**
+     * 每个服务的派发策略和队列深度、活跃线程数等统计，key 是 rpcServiceName；服务第一次收到请求之后才有
+     */
+    public Map<String, ServiceDispatcher> getDispatchers() {
+        DispatcherRegistry registry = dispatcherRegistry;
+        return registry == null ? Collections.emptyMap() : registry.getDispatchers();
+    }
+
+    /**
+     * 准入控制的配置和接收、拒绝的请求数，没有开启准入控制时为 null
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
     @SneakyThrows  //为我们的代码生成一个try...catch块，并把异常向上抛出来
     public void start() {
         CustomShutdownHook.getCustomShutdownHook().clearAll(); //停止之前在zk中注册的所有服务
         String host = InetAddress.getLocalHost().getHostAddress();
+        boolean flushConsolidation = RpcConfigUtil.getBoolean(RpcConfigEnum.FLUSH_CONSOLIDATION, false);
+        int flushMaxBatch = RpcConfigUtil.getInt(RpcConfigEnum.FLUSH_MAX_BATCH, RpcConstants.DEFAULT_FLUSH_MAX_BATCH);
+        long flushDelayMicros = RpcConfigUtil.getLong(RpcConfigEnum.FLUSH_DELAY_MICROS, 0);
+        //Linux 上 epoll 可用时使用 epoll，否则使用 NIO
+        NettyTransport transport = NettyTransport.fromConfig();
+        //开启 SO_REUSEPORT 时同一个端口绑定多个监听 socket，每个监听 socket 由一个 boss 线程负责
+        int binds = transport.serverBinds();
         //多线程模型。一个线程负责监听客户端连接 多个线程用于接受数据
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1); //一个bossGroup负责接受连接，对应1个线程
-        EventLoopGroup workerGroup = new NioEventLoopGroup(); //workerGroup负责进行I/O，对应多个EventLoop，每个EventLoop对应一个线程
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(binds); //bossGroup负责接受连接，每个监听 socket 对应1个线程
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(0); //workerGroup负责进行I/O，对应多个EventLoop，每个EventLoop对应一个线程
         //服务端执行事件的Handler 穿件多个线程 数量为2*cpu个数
         //Netty提供的 非I/O线程池——DefaultEventExecutorGroup
         //内部聚合了Java的Thread，但没有I/O多路复用器，侧重于处理耗时业务逻辑（非I/O操作）
@@ -55,10 +94,16 @@ public class NettyRpcServer {
                 //非守护线程
                 ThreadPoolFactoryUtil.createThreadFactory("service-handler-group", false)
         );
+        //每个服务按注册时配置的策略派发请求，默认使用上面共用的线程池
+        DispatcherRegistry registry = new DispatcherRegistry(serviceHandlerGroup, serviceProvider);
+        this.dispatcherRegistry = registry;
+        //按 rpc.server.admission.* 配置，服务端过载时在反序列化之前拒绝请求
+        AdmissionController admission = AdmissionController.fromConfig(registry);
+        this.admissionController = admission;
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     // TCP默认开启了 Nagle 算法，该算法的作用是尽可能的发送大数据快，减少网络传输。TCP_NODELAY 参数的作用就是控制是否启用 Nagle 算法。
                     .childOption(ChannelOption.TCP_NODELAY, true)
                     // 是否开启 TCP 底层心跳机制
@@ -73,15 +118,29 @@ public class NettyRpcServer {
                             // 30 秒之内没有收到客户端请求的话就关闭连接
                             ChannelPipeline p = ch.pipeline();
                             p.addLast(new IdleStateHandler(30, 0, 0, TimeUnit.SECONDS));
+                            if (flushConsolidation) {
+                                //业务线程写回的响应在 I/O 线程上合并 flush
+                                p.addLast(new BatchFlushHandler(flushMaxBatch, flushDelayMicros, flushMetrics));
+                            }
                             p.addLast(new RpcMessageEncoder()); //先解码
-                            p.addLast(new RpcMessageDecoder()); //再编码
-                            p.addLast(serviceHandlerGroup, new NettyRpcServerHandler());
+                            p.addLast(new RpcMessageDecoder(admission)); //再编码
+                            //在 I/O 线程上按顺序把只带方法编号的请求还原
+                            p.addLast(new MethodDictionaryHandler());
+                            //handler 在 I/O 线程上，由它把请求交给服务的派发策略
+                            p.addLast(new NettyRpcServerHandler(registry));
                         }
                     });
-            // 绑定端口，同步等待绑定成功
-            ChannelFuture f = b.bind(host, PORT).sync();
+            transport.configure(b);
+            // 绑定端口，同步等待绑定成功；每次 bind 的监听 socket 依次注册到不同的 boss EventLoop 上
+            List<Channel> serverChannels = new ArrayList<>(binds);
+            for (int i = 0; i < binds; i++) {
+                serverChannels.add(b.bind(host, PORT).sync().channel());
+            }
+            log.info("server listening on [{}:{}] with [{}] sockets", host, PORT, binds);
             // 等待服务端监听端口关闭
-            f.channel().closeFuture().sync();
+            for (Channel serverChannel : serverChannels) {
+                serverChannel.closeFuture().sync();
+            }
         } catch (InterruptedException e) {
             log.error("occur exception when start server:", e);
         } finally {
@@ -89,6 +148,7 @@ public class NettyRpcServer {
             log.error("shutdown bossGroup and workerGroup");
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            registry.shutdown();
             serviceHandlerGroup.shutdownGracefully();
         }
     }
@@ -6,27 +6,52 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.enums.CompressTypeEnum;
 import org.rpc.enums.RpcResponseCodeEnum;
 import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.config.RpcServiceConfig;
 import org.rpc.factory.SingletonFactory;
+import org.rpc.provider.ServiceProvider;
+import org.rpc.provider.impl.ZkServiceProviderImpl;
 import org.rpc.remoting.constants.RpcConstants;
 import org.rpc.remoting.dto.RpcMessage;
 import org.rpc.remoting.dto.RpcRequest;
 import org.rpc.remoting.dto.RpcResponse;
+import org.rpc.remoting.dto.RpcStreamCredit;
 import org.rpc.remoting.handler.RpcRequestHandler;
+import org.rpc.remoting.transport.netty.server.dispatch.DispatcherRegistry;
+import org.rpc.remoting.transport.netty.server.dispatch.ServiceDispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 /*
     继承自ChannelInboundHandlerAdapter 不需要考虑bytebuf的释放
    {@link SimpleChannelInboundHandler} 内部的
  * channelRead 方法会替你释放 ByteBuf ，避免可能导致的内存泄露问题。详见《Netty进阶之路 跟着案例学 Netty》
+ *
+ * 这个 handler 在 I/O 线程上收到请求，按请求的服务配置的派发策略交给对应的线程执行；
+ * 心跳直接在 I/O 线程上回复，流式调用固定在这个连接的共用业务线程上执行
  */
 @Slf4j
 public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
     private final RpcRequestHandler rpcRequestHandler;
-    public NettyRpcServerHandler() {
+    private final ServiceProvider serviceProvider;
+    private final DispatcherRegistry dispatcherRegistry;
+    //这个连接上还没有结束的流式调用，只在这个连接的共用业务线程上访问
+    private final Map<Long, ServerStream> streams = new HashMap<>();
+    public NettyRpcServerHandler(DispatcherRegistry dispatcherRegistry) {
         this.rpcRequestHandler = SingletonFactory.getInstance(RpcRequestHandler.class);
+        this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+        this.dispatcherRegistry = dispatcherRegistry;
     }
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
@@ -34,34 +59,39 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
             if (msg instanceof RpcMessage) {
                 //如果是服务端的消息 则开始处理
                 log.info("server receive msg: [{}] ", msg);
-                byte messageType = ((RpcMessage) msg).getMessageType(); //消息类型
-                RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode()); //序列化类型
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode()); //编码类型
+                RpcMessage request = (RpcMessage) msg;
+                byte messageType = request.getMessageType(); //消息类型
+                if (messageType == RpcConstants.STREAM_REQUEST_TYPE) {
+                    runOnStreamExecutor(ctx, () -> startStream(ctx, request));
+                    return;
+                }
+                if (messageType == RpcConstants.STREAM_CREDIT_TYPE) {
+                    runOnStreamExecutor(ctx, () -> onStreamCredit(request));
+                    return;
+                }
                 if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
                     //如果当前消息是心跳请求包，则回复Pong，表示正常
+                    RpcMessage rpcMessage = newResponseMessage(request);
                     rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
                     rpcMessage.setData(RpcConstants.PONG);
-                } else {
-                    //如果是正常的消息 则解码请求
-                    RpcRequest rpcRequest = (RpcRequest) ((RpcMessage) msg).getData();
-                    // 执行客户端需要执行的方法，并相应，可以请求的方法通过serviceName找到对应的服务，然后执行
-                    Object result = rpcRequestHandler.handle(rpcRequest);
-                    log.info(String.format("server get result: %s", result.toString()));
-                    rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE); //此时的消息类型位回应
-                    if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                        //如果正常，则可以正常的执行
-                        RpcResponse<Object> rpcResponse = RpcResponse.success(result, rpcRequest.getRequestId());
-                        rpcMessage.setData(rpcResponse);
-                    } else {
-                        //响应失败
-                        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                        rpcMessage.setData(rpcResponse);
-                        log.error("not writable now, message dropped");
-                    }
+                    ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                    return;
+                }
+                if (request.isOverloaded()) {
+                    //解码时被准入控制拒绝，消息体没有反序列化，直接回复过载
+                    writeFailure(ctx, request, RpcResponseCodeEnum.OVERLOADED, RpcResponseCodeEnum.OVERLOADED.getMessage());
+                    return;
+                }
+                //如果是正常的消息 则按服务的派发策略执行
+                RpcRequest rpcRequest = (RpcRequest) request.getData();
+                ServiceDispatcher dispatcher = dispatcherRegistry.get(rpcRequest.getRpcServiceName());
+                try {
+                    dispatcher.dispatch(ctx.channel(), rpcRequest.getOrderKey(), () -> handleRequest(ctx, request, rpcRequest, dispatcher));
+                } catch (RejectedExecutionException e) {
+                    //服务的线程池排满了，直接告诉客户端失败，不在 I/O 线程上等待
+                    log.warn("service [{}] rejected request [{}]: {}", rpcRequest.getRpcServiceName(), request.getRequestId(), dispatcher);
+                    writeFailure(ctx, request, RpcResponseCodeEnum.FAIL, "service " + rpcRequest.getRpcServiceName() + " is busy");
                 }
-                //写入消息并刷新，并且添加监听器看是否正常执行
-                ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
             }
         } finally {
             //确保释放Byte Buf，否则可能会出现内存泄漏
@@ -69,6 +99,178 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /*
+        在派发策略选定的线程上执行请求并写回响应。
+        服务方法返回 CompletionStage 时不等待它完成，线程直接返回，响应在 future 完成的回调里写回
+     */
+    private void handleRequest(ChannelHandlerContext ctx, RpcMessage request, RpcRequest rpcRequest, ServiceDispatcher dispatcher) {
+        try {
+            // 执行客户端需要执行的方法，并相应，可以请求的方法通过serviceName找到对应的服务，然后执行
+            Object result = rpcRequestHandler.invoke(rpcRequest);
+            if (result instanceof CompletionStage) {
+                CompletionStage<?> future = (CompletionStage<?>) result;
+                dispatcher.trackAsync(future);
+                future.whenComplete((value, cause) -> {
+                    if (cause != null) {
+                        //和同步方法抛出异常一样处理
+                        exceptionCaught(ctx, RpcRequestHandler.unwrap(cause));
+                        return;
+                    }
+                    writeResponse(ctx, request, rpcRequest, value);
+                });
+                return;
+            }
+            writeResponse(ctx, request, rpcRequest, result);
+        } catch (Throwable e) {
+            //不在 I/O 线程上时异常不会经过 pipeline，和原来一样交给 exceptionCaught 处理
+            exceptionCaught(ctx, e);
+        }
+    }
+
+    /*
+        写回服务方法的结果，异步的服务实现在完成 future 的线程上调用
+     */
+    private void writeResponse(ChannelHandlerContext ctx, RpcMessage request, RpcRequest rpcRequest, Object result) {
+        try {
+            RpcMessage rpcMessage = newResponseMessage(request);
+            // 响应按照服务注册时配置的压缩策略压缩
+            RpcServiceConfig rpcServiceConfig = serviceProvider.getServiceConfig(rpcRequest.getRpcServiceName());
+            rpcMessage.setCompress(rpcServiceConfig.getCompress().getCode());
+            rpcMessage.setCompressThreshold(rpcServiceConfig.getCompressThreshold());
+            log.info(String.format("server get result: %s", result));
+            rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE); //此时的消息类型位回应
+            if (ctx.channel().isActive() && ctx.channel().isWritable()) {
+                //如果正常，则可以正常的执行
+                RpcResponse<Object> rpcResponse = RpcResponse.success(result);
+                rpcMessage.setData(rpcResponse);
+            } else {
+                //响应失败
+                RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+                rpcMessage.setData(rpcResponse);
+                log.error("not writable now, message dropped");
+            }
+            //写入消息并刷新，并且添加监听器看是否正常执行
+            ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        } catch (Throwable e) {
+            //不在 I/O 线程上时异常不会经过 pipeline，和原来一样交给 exceptionCaught 处理
+            exceptionCaught(ctx, e);
+        }
+    }
+
+    private static void writeFailure(ChannelHandlerContext ctx, RpcMessage request, RpcResponseCodeEnum code, String message) {
+        RpcMessage rpcMessage = newResponseMessage(request);
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        RpcResponse<Object> rpcResponse = RpcResponse.fail(code);
+        rpcResponse.setMessage(message);
+        rpcMessage.setData(rpcResponse);
+        ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /*
+        响应使用和请求相同的协议版本，并带回请求编号和追踪 id
+     */
+    private static RpcMessage newResponseMessage(RpcMessage request) {
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        rpcMessage.setTraceId(request.getTraceId());
+        rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode()); //序列化类型
+        rpcMessage.setCompress(CompressTypeEnum.NONE.getCode()); //压缩类型，心跳没有消息体
+        return rpcMessage;
+    }
+
+    private EventExecutor streamExecutor(ChannelHandlerContext ctx) {
+        return dispatcherRegistry.sharedExecutor(ctx.channel());
+    }
+
+    private void runOnStreamExecutor(ChannelHandlerContext ctx, Runnable task) {
+        streamExecutor(ctx).execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                exceptionCaught(ctx, e);
+            }
+        });
+    }
+
+    /*
+        流式调用：服务方法返回 Iterator 或者 Stream，元素按客户端给的许可逐个发送
+     */
+    private void startStream(ChannelHandlerContext ctx, RpcMessage request) {
+        RpcRequest rpcRequest = (RpcRequest) request.getData();
+        long requestId = request.getRequestId();
+        RpcServiceConfig rpcServiceConfig = serviceProvider.getServiceConfig(rpcRequest.getRpcServiceName());
+        Object result;
+        try {
+            result = rpcRequestHandler.handle(rpcRequest);
+        } catch (RuntimeException e) {
+            new ServerStream(ctx, streamExecutor(ctx), request, Collections.emptyIterator(), null, rpcServiceConfig, () -> { }).fail(e);
+            return;
+        }
+        Iterator<?> iterator;
+        AutoCloseable resource = null;
+        if (result instanceof Stream) {
+            iterator = ((Stream<?>) result).iterator();
+            resource = (Stream<?>) result;
+        } else if (result instanceof Iterator) {
+            iterator = (Iterator<?>) result;
+            if (result instanceof AutoCloseable) {
+                resource = (AutoCloseable) result;
+            }
+        } else {
+            new ServerStream(ctx, streamExecutor(ctx), request, Collections.emptyIterator(), null, rpcServiceConfig, () -> { })
+                    .fail(new IllegalStateException(rpcRequest.getMethodName() + " did not return an Iterator or Stream"));
+            return;
+        }
+        ServerStream stream = new ServerStream(ctx, streamExecutor(ctx), request, iterator, resource, rpcServiceConfig,
+                () -> streams.remove(requestId));
+        streams.put(requestId, stream);
+        //许可在客户端的许可帧里，这里只处理空流和调用失败
+        stream.pump();
+    }
+
+    private void onStreamCredit(RpcMessage request) {
+        ServerStream stream = streams.get(request.getRequestId());
+        if (stream == null) {
+            //流已经结束了，客户端补发的许可直接丢弃
+            return;
+        }
+        RpcStreamCredit credit = (RpcStreamCredit) request.getData();
+        if (credit.isCancel()) {
+            stream.cancel();
+        } else {
+            stream.addCredits(credit.getCredits());
+        }
+    }
+
+    /*
+        连接恢复可写时继续发送暂停的流
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            streamExecutor(ctx).execute(() -> {
+                for (ServerStream stream : new ArrayList<>(streams.values())) {
+                    stream.pump();
+                }
+            });
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /*
+        连接断开时关闭所有还没有结束的流
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        streamExecutor(ctx).execute(() -> {
+            for (ServerStream stream : new ArrayList<>(streams.values())) {
+                stream.cancel();
+            }
+        });
+        super.channelInactive(ctx);
+    }
+
     /*
     用户事件的回调
     如果空闲事件触发，则关闭链接
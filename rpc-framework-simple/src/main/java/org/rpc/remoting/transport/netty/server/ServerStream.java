@@ -0,0 +1,150 @@
+package org.rpc.remoting.transport.netty.server;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.config.RpcServiceConfig;
+import org.rpc.enums.RpcResponseCodeEnum;
+import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.dto.RpcMessage;
+import org.rpc.remoting.dto.RpcResponse;
+
+import java.util.Iterator;
+
+/*
+    服务端一次流式调用的发送状态。
+    服务方法返回的 Iterator（或者 Stream 的 iterator）在这里逐个取出元素，每个元素一个数据帧，都带着请求的编号；
+    每发一个数据帧消耗一个客户端给的许可，许可用完或者连接不可写时暂停，收到新的许可或者连接恢复可写时继续，
+    所以服务端和客户端缓存的元素都不会超过客户端的窗口。元素取完之后发送结束帧，出错时结束帧里带上错误信息。
+    所有方法都只在这个连接的业务线程上调用，不需要加锁
+ */
+@Slf4j
+final class ServerStream {
+    /**
+     * 一次最多连续写多少个数据帧，之后 flush 并把剩下的放到下一轮，避免一个流长时间占着业务线程
+     */
+    private static final int WRITE_BATCH = 64;
+
+    private final ChannelHandlerContext ctx;
+    private final EventExecutor executor;
+    private final RpcMessage request;
+    private final Iterator<?> iterator;
+    private final AutoCloseable resource;
+    private final RpcServiceConfig rpcServiceConfig;
+    private final Runnable onFinish;
+    private long credits;
+    private boolean scheduled;
+    private boolean finished;
+
+    /**
+     * @param executor 这个连接的业务线程，流的所有方法都在这个线程上执行
+     * @param resource 流结束时需要关闭的资源（比如 Stream），可以为 null
+     * @param onFinish 流结束或者被取消时调用，用来从连接的流表里移除
+     */
+    ServerStream(ChannelHandlerContext ctx, EventExecutor executor, RpcMessage request, Iterator<?> iterator, AutoCloseable resource,
+                 RpcServiceConfig rpcServiceConfig, Runnable onFinish) {
+        this.ctx = ctx;
+        this.executor = executor;
+        this.request = request;
+        this.iterator = iterator;
+        this.resource = resource;
+        this.rpcServiceConfig = rpcServiceConfig;
+        this.onFinish = onFinish;
+    }
+
+    void addCredits(int n) {
+        credits += n;
+        pump();
+    }
+
+    /**
+     * 在许可和连接可写的范围内尽量多地发送，元素取完时发送结束帧
+     */
+    void pump() {
+        if (finished || scheduled) {
+            return;
+        }
+        int written = 0;
+        try {
+            while (ctx.channel().isWritable()) {
+                // 先看还有没有元素，这样许可刚好用完时也能及时发出结束帧
+                if (!iterator.hasNext()) {
+                    finish(RpcResponse.success(null));
+                    return;
+                }
+                if (credits <= 0) {
+                    break;
+                }
+                ctx.write(newMessage(RpcConstants.STREAM_DATA_TYPE, RpcResponse.success(iterator.next())))
+                        .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                credits--;
+                if (++written >= WRITE_BATCH) {
+                    ctx.flush();
+                    scheduled = true;
+                    executor.execute(() -> {
+                        scheduled = false;
+                        pump();
+                    });
+                    return;
+                }
+            }
+            if (written > 0) {
+                ctx.flush();
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 以失败的结束帧结束，客户端迭代到这里时抛出异常
+     */
+    void fail(RuntimeException cause) {
+        log.error("stream [{}] of [{}] failed", request.getRequestId(), ctx.channel().remoteAddress(), cause);
+        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+        rpcResponse.setMessage(cause.getMessage());
+        finish(rpcResponse);
+    }
+
+    /**
+     * 客户端取消或者连接断开，不再发送
+     */
+    void cancel() {
+        if (!finished) {
+            finished = true;
+            release();
+        }
+    }
+
+    private void finish(RpcResponse<Object> rpcResponse) {
+        finished = true;
+        ctx.writeAndFlush(newMessage(RpcConstants.STREAM_END_TYPE, rpcResponse)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        release();
+    }
+
+    private void release() {
+        onFinish.run();
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("close stream [{}] failed", request.getRequestId(), e);
+            }
+        }
+    }
+
+    private RpcMessage newMessage(byte messageType, RpcResponse<Object> rpcResponse) {
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        rpcMessage.setTraceId(request.getTraceId());
+        rpcMessage.setMessageType(messageType);
+        rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode());
+        rpcMessage.setCompress(rpcServiceConfig.getCompress().getCode());
+        rpcMessage.setCompressThreshold(rpcServiceConfig.getCompressThreshold());
+        rpcMessage.setData(rpcResponse);
+        return rpcMessage;
+    }
+}
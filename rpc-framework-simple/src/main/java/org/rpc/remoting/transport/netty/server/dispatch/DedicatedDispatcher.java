@@ -0,0 +1,36 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import org.rpc.enums.DispatchTypeEnum;
+import org.rpc.utils.threadpool.CustomThreadPoolConfig;
+import org.rpc.utils.threadpool.ThreadPoolFactoryUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/*
+    服务独占的有界线程池，阻塞的服务只会占满自己的线程和队列；队列满了之后新的请求直接被拒绝，不会无限堆积。
+    线程池登记在 ThreadPoolFactoryUtil 里，关闭服务时统一关闭
+ */
+class DedicatedDispatcher extends PoolDispatcher {
+
+    DedicatedDispatcher(String rpcServiceName, int threads, int queueSize) {
+        super(newPool(rpcServiceName, threads, queueSize), queueSize);
+    }
+
+    private static ExecutorService newPool(String rpcServiceName, int threads, int queueSize) {
+        if (threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("illegal dispatch pool of [" + rpcServiceName + "]: threads "
+                    + threads + ", queue " + queueSize);
+        }
+        CustomThreadPoolConfig config = new CustomThreadPoolConfig();
+        config.setCorePoolSize(threads);
+        config.setMaximumPoolSize(threads);
+        config.setWorkQueue(new ArrayBlockingQueue<>(queueSize));
+        return ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent("service-" + rpcServiceName, config);
+    }
+
+    @Override
+    public DispatchTypeEnum getType() {
+        return DispatchTypeEnum.DEDICATED;
+    }
+}
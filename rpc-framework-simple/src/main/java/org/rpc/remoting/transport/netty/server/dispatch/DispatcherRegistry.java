@@ -0,0 +1,172 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.config.RpcServiceConfig;
+import org.rpc.enums.DispatchTypeEnum;
+import org.rpc.exception.RpcException;
+import org.rpc.provider.ServiceProvider;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.utils.RuntimeUtil;
+import org.rpc.utils.threadpool.CustomThreadPoolConfig;
+import org.rpc.utils.threadpool.ThreadPoolFactoryUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongConsumer;
+
+/*
+    每个服务的派发策略，服务第一次收到请求时按注册时的配置创建。
+    共用的业务线程池由服务端创建和关闭；每个连接第一次用到时从池里选定一个线程，之后这个连接的请求和流式调用都在这个线程上执行。
+    PARALLEL 的服务共用一个工作线程池，第一个这样的服务收到请求时创建，线程数和共用的业务线程池一样。
+    这两个共用线程池里请求的排队时间交给 queueDelayListener，服务端用它判断是不是过载了
+ */
+@Slf4j
+public class DispatcherRegistry {
+    private static final AttributeKey<EventExecutor> SHARED_EXECUTOR = AttributeKey.valueOf("sharedExecutor");
+
+    private final EventExecutorGroup sharedGroup;
+    private final ServiceProvider serviceProvider;
+    private final Map<String, ServiceDispatcher> dispatchers = new ConcurrentHashMap<>();
+    //找不到服务时也要有地方执行，由处理请求的代码报告找不到服务
+    private final ServiceDispatcher fallback;
+    private volatile ExecutorService workerPool;
+    private volatile LongConsumer queueDelayListener;
+
+    public DispatcherRegistry(EventExecutorGroup sharedGroup, ServiceProvider serviceProvider) {
+        this.sharedGroup = sharedGroup;
+        this.serviceProvider = serviceProvider;
+        this.fallback = measured(new SharedDispatcher(this));
+    }
+
+    /**
+     * @return 服务的派发策略，服务不存在时返回共用线程池的策略
+     */
+    public ServiceDispatcher get(String rpcServiceName) {
+        ServiceDispatcher dispatcher = dispatchers.get(rpcServiceName);
+        if (dispatcher != null) {
+            return dispatcher;
+        }
+        RpcServiceConfig rpcServiceConfig;
+        try {
+            rpcServiceConfig = serviceProvider.getServiceConfig(rpcServiceName);
+        } catch (RpcException e) {
+            return fallback;
+        }
+        return dispatchers.computeIfAbsent(rpcServiceName, name -> measured(create(name, rpcServiceConfig)));
+    }
+
+    /**
+     * 共用线程池里每个请求从提交到开始执行的时间（纳秒）交给 listener
+     */
+    public void setQueueDelayListener(LongConsumer queueDelayListener) {
+        this.queueDelayListener = queueDelayListener;
+    }
+
+    /**
+     * 所有服务已经提交、还在排队的请求数
+     */
+    public int getQueueDepth() {
+        int queueDepth = fallback.getQueueDepth();
+        for (ServiceDispatcher dispatcher : dispatchers.values()) {
+            queueDepth += dispatcher.getQueueDepth();
+        }
+        return queueDepth;
+    }
+
+    /**
+     * 所有服务正在执行的请求数，包括线程已经返回、还在等异步结果的请求
+     */
+    public int getActiveCount() {
+        int activeCount = fallback.getActiveCount() + fallback.getAwaitingCount();
+        for (ServiceDispatcher dispatcher : dispatchers.values()) {
+            activeCount += dispatcher.getActiveCount() + dispatcher.getAwaitingCount();
+        }
+        return activeCount;
+    }
+
+    /**
+     * 连接固定使用的共用线程池里的线程
+     */
+    public EventExecutor sharedExecutor(Channel channel) {
+        EventExecutor executor = channel.attr(SHARED_EXECUTOR).get();
+        if (executor == null) {
+            EventExecutor selected = sharedGroup.next();
+            executor = channel.attr(SHARED_EXECUTOR).setIfAbsent(selected);
+            if (executor == null) {
+                executor = selected;
+            }
+        }
+        return executor;
+    }
+
+    private ServiceDispatcher measured(ServiceDispatcher dispatcher) {
+        //独占线程池有自己的队列上限，IO 和虚拟线程没有排队，都不参与判断
+        if (dispatcher.getType() == DispatchTypeEnum.SHARED || dispatcher.getType() == DispatchTypeEnum.PARALLEL) {
+            dispatcher.setQueueDelayListener(this::onQueueDelay);
+        }
+        return dispatcher;
+    }
+
+    private void onQueueDelay(long delayNanos) {
+        LongConsumer listener = queueDelayListener;
+        if (listener != null) {
+            listener.accept(delayNanos);
+        }
+    }
+
+    private synchronized ExecutorService workerPool() {
+        if (workerPool == null) {
+            int threads = RuntimeUtil.cpus() * 2;
+            CustomThreadPoolConfig config = new CustomThreadPoolConfig();
+            config.setCorePoolSize(threads);
+            config.setMaximumPoolSize(threads);
+            config.setWorkQueue(new ArrayBlockingQueue<>(RpcConstants.DEFAULT_DISPATCH_QUEUE_SIZE));
+            workerPool = ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent("service-worker", config);
+        }
+        return workerPool;
+    }
+
+    private ServiceDispatcher create(String rpcServiceName, RpcServiceConfig rpcServiceConfig) {
+        switch (rpcServiceConfig.getDispatch()) {
+            case IO:
+                return new IoDispatcher();
+            case DEDICATED:
+                int threads = rpcServiceConfig.getDispatchThreads() > 0 ? rpcServiceConfig.getDispatchThreads() : RuntimeUtil.cpus();
+                return new DedicatedDispatcher(rpcServiceName, threads, rpcServiceConfig.getDispatchQueueSize());
+            case PARALLEL:
+                return new ParallelDispatcher(workerPool(), RpcConstants.DEFAULT_DISPATCH_QUEUE_SIZE);
+            case VIRTUAL:
+                VirtualThreadDispatcher dispatcher = VirtualThreadDispatcher.create();
+                if (dispatcher != null) {
+                    return dispatcher;
+                }
+                log.warn("virtual threads need JDK 21+, service [{}] uses the shared pool instead", rpcServiceName);
+                return new SharedDispatcher(this);
+            case SHARED:
+            default:
+                return new SharedDispatcher(this);
+        }
+    }
+
+    /**
+     * 每个服务的派发策略和统计，key 是 rpcServiceName
+     */
+    public Map<String, ServiceDispatcher> getDispatchers() {
+        return new HashMap<>(dispatchers);
+    }
+
+    public void shutdown() {
+        dispatchers.values().forEach(ServiceDispatcher::shutdown);
+        ExecutorService pool = workerPool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import io.netty.channel.Channel;
+import org.rpc.enums.DispatchTypeEnum;
+
+/*
+    直接在收到请求的 I/O 线程上执行，省掉一次线程切换；方法阻塞时会卡住这个 I/O 线程上的所有连接
+ */
+class IoDispatcher extends ServiceDispatcher {
+    @Override
+    protected void doDispatch(Channel channel, Runnable task) {
+        task.run();
+    }
+
+    @Override
+    public DispatchTypeEnum getType() {
+        return DispatchTypeEnum.IO;
+    }
+}
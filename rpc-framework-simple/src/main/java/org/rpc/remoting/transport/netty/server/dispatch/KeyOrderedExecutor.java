@@ -0,0 +1,47 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    按 key 保证顺序的执行器：key 按哈希分到固定数量的串行队列上，同一个队列里的任务在线程池上一个接一个地执行，
+    不同队列之间仍然并发。排队的任务不占用线程池的线程，只有队列头上的任务会提交给线程池；
+    串行队列本身不限长度，所以另外限制还没有开始执行的任务数，超过时和线程池的队列满了一样拒绝
+ */
+class KeyOrderedExecutor {
+    private static final int STRIPES = 64;
+
+    private final Executor[] stripes = new Executor[STRIPES];
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    KeyOrderedExecutor(Executor executor, int maxPending) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = MoreExecutors.newSequentialExecutor(executor);
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @throws RejectedExecutionException 排队的任务太多，或者线程池拒绝了任务
+     */
+    void execute(int key, Runnable task) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("too many ordered tasks pending: " + maxPending);
+        }
+        try {
+            stripes[Math.floorMod(key, STRIPES)].execute(() -> {
+                pending.decrementAndGet();
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            //线程池拒绝时任务已经从串行队列里移除了
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+}
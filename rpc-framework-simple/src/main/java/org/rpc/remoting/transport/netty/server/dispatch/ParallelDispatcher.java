@@ -0,0 +1,26 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import org.rpc.enums.DispatchTypeEnum;
+
+import java.util.concurrent.ExecutorService;
+
+/*
+    在所有这类服务共用的工作线程池上执行，连接不固定在某个线程上：
+    同一个连接上的请求由空闲的线程并发执行，一个慢请求不会挡住后面的请求，响应按完成的顺序写回
+ */
+class ParallelDispatcher extends PoolDispatcher {
+
+    ParallelDispatcher(ExecutorService workerPool, int maxOrderedPending) {
+        super(workerPool, maxOrderedPending);
+    }
+
+    @Override
+    public DispatchTypeEnum getType() {
+        return DispatchTypeEnum.PARALLEL;
+    }
+
+    @Override
+    void shutdown() {
+        //工作线程池由 DispatcherRegistry 关闭
+    }
+}
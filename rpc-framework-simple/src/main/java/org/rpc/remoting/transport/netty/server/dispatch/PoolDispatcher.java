@@ -0,0 +1,37 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.ExecutorService;
+
+/*
+    在线程池上执行的派发策略，同一个连接上的请求并发执行、谁先完成谁先写回响应；
+    带顺序 key 的请求交给按 key 串行的执行器，key 相同的请求按收到的顺序执行
+ */
+abstract class PoolDispatcher extends ServiceDispatcher {
+    private final ExecutorService executor;
+    private final KeyOrderedExecutor ordered;
+
+    /**
+     * @param maxOrderedPending 带顺序 key、还没有开始执行的请求最多有多少个
+     */
+    PoolDispatcher(ExecutorService executor, int maxOrderedPending) {
+        this.executor = executor;
+        this.ordered = new KeyOrderedExecutor(executor, maxOrderedPending);
+    }
+
+    @Override
+    protected void doDispatch(Channel channel, Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    protected void doDispatchOrdered(Channel channel, int orderKey, Runnable task) {
+        ordered.execute(orderKey, task);
+    }
+
+    @Override
+    void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,131 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import io.netty.channel.Channel;
+import org.rpc.enums.DispatchTypeEnum;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/*
+    一个服务的请求派发策略：决定服务方法在哪个线程上执行。
+    所有策略用同样的方式统计：已经提交还没有开始执行的请求数（队列深度）、正在执行的请求数、执行完的和被拒绝的请求数
+ */
+public abstract class ServiceDispatcher {
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger awaiting = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    //共用线程池的策略把每个请求的排队时间报告给准入控制，其他策略为 null
+    private LongConsumer queueDelayListener;
+
+    /**
+     * 执行一个请求
+     *
+     * @param channel  请求所在的连接
+     * @param orderKey 请求的顺序 key，null 表示不要求顺序
+     * @throws RejectedExecutionException 线程池的队列满了或者已经关闭
+     */
+    public final void dispatch(Channel channel, Integer orderKey, Runnable task) {
+        queued.incrementAndGet();
+        LongConsumer listener = queueDelayListener;
+        long queuedAt = listener == null ? 0 : System.nanoTime();
+        Runnable counted = () -> {
+            queued.decrementAndGet();
+            if (listener != null) {
+                listener.accept(System.nanoTime() - queuedAt);
+            }
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                completed.increment();
+            }
+        };
+        try {
+            if (orderKey == null) {
+                doDispatch(channel, counted);
+            } else {
+                doDispatchOrdered(channel, orderKey, counted);
+            }
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    protected abstract void doDispatch(Channel channel, Runnable task);
+
+    /**
+     * 执行带顺序 key 的请求。默认按连接顺序执行的策略本身已经满足 key 的顺序，直接按普通请求执行
+     */
+    protected void doDispatchOrdered(Channel channel, int orderKey, Runnable task) {
+        doDispatch(channel, task);
+    }
+
+    public abstract DispatchTypeEnum getType();
+
+    void setQueueDelayListener(LongConsumer queueDelayListener) {
+        this.queueDelayListener = queueDelayListener;
+    }
+
+    /**
+     * 释放策略自己持有的线程，共用的线程池由服务端关闭
+     */
+    void shutdown() {
+    }
+
+    /**
+     * 服务方法返回了还没有完成的 future：线程已经释放，请求要等 future 完成才结束，期间计入等待异步结果的请求数
+     */
+    public void trackAsync(CompletionStage<?> future) {
+        awaiting.incrementAndGet();
+        future.whenComplete((value, cause) -> awaiting.decrementAndGet());
+    }
+
+    /**
+     * 已经提交、还在排队的请求数
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * 线程已经返回、还在等异步结果的请求数
+     */
+    public int getAwaitingCount() {
+        return awaiting.get();
+    }
+
+    /**
+     * 执行完的请求数，异步的服务实现在方法返回时就算执行完
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * 因为队列满了而被拒绝的请求数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(queued=%d, active=%d, awaiting=%d, completed=%d, rejected=%d)",
+                getType().getName(), getQueueDepth(), getActiveCount(), getAwaitingCount(), getCompletedCount(), getRejectedCount());
+    }
+}
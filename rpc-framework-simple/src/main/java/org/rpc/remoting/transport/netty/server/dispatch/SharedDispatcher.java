@@ -0,0 +1,25 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import io.netty.channel.Channel;
+import org.rpc.enums.DispatchTypeEnum;
+
+/*
+    在所有服务共用的业务线程池上执行。一个连接固定由池里的同一个线程处理，同一个连接上的请求按收到的顺序执行
+ */
+class SharedDispatcher extends ServiceDispatcher {
+    private final DispatcherRegistry registry;
+
+    SharedDispatcher(DispatcherRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doDispatch(Channel channel, Runnable task) {
+        registry.sharedExecutor(channel).execute(task);
+    }
+
+    @Override
+    public DispatchTypeEnum getType() {
+        return DispatchTypeEnum.SHARED;
+    }
+}
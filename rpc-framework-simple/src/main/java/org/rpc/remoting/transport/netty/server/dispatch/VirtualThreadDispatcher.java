@@ -0,0 +1,42 @@
+package org.rpc.remoting.transport.netty.server.dispatch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.DispatchTypeEnum;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    每个请求一个虚拟线程，阻塞的服务方法不占用平台线程。
+    项目按 JDK 11 编译，虚拟线程的执行器通过反射创建；运行时低于 JDK 21 时 create 返回 null，由调用方退回到其他策略
+ */
+@Slf4j
+class VirtualThreadDispatcher extends PoolDispatcher {
+    private static final int MIN_FEATURE_VERSION = 21;
+
+    private VirtualThreadDispatcher(ExecutorService executor) {
+        //虚拟线程本身不限数量，带顺序 key 的请求也不限制排队的个数
+        super(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return 当前运行时不支持虚拟线程时返回 null
+     */
+    static VirtualThreadDispatcher create() {
+        if (Runtime.version().feature() < MIN_FEATURE_VERSION) {
+            return null;
+        }
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new VirtualThreadDispatcher(executor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("create virtual thread executor failed", e);
+            return null;
+        }
+    }
+
+    @Override
+    public DispatchTypeEnum getType() {
+        return DispatchTypeEnum.VIRTUAL;
+    }
+}
@@ -0,0 +1,161 @@
+package org.rpc.remoting.transport.netty.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+import org.rpc.enums.RpcConfigEnum;
+import org.rpc.utils.RpcConfigUtil;
+import org.rpc.utils.RuntimeUtil;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 客户端和服务端共用的传输层选择。
+ * <p>
+ * 通过 rpc.transport 配置：auto（默认，Linux 上 epoll 可用时用 epoll，否则用 NIO）、epoll 或 nio；
+ * 指定 epoll 但是当前平台不可用时打印原因并退回 NIO。下面这些选项只在 epoll 下生效：
+ * <ul>
+ *     <li>rpc.transport.epoll.mode：edge（默认，边缘触发）或 level（水平触发）</li>
+ *     <li>rpc.transport.reuseport：服务端开启 SO_REUSEPORT，在同一个端口上绑定
+ *     rpc.transport.reuseport.binds 个监听 socket（默认 CPU 核数），每个由一个 boss EventLoop 负责，由内核分发新连接</li>
+ *     <li>rpc.transport.quickack：开启 TCP_QUICKACK，收到数据后立即回 ACK</li>
+ *     <li>rpc.transport.busy.poll：SO_BUSY_POLL 的微秒数，0 表示不开启</li>
+ * </ul>
+ * </p>
+ */
+@Slf4j
+public final class NettyTransport {
+    private static final String EPOLL = "epoll";
+    private static final String NIO = "nio";
+    private static final String LEVEL_TRIGGERED = "level";
+
+    private final boolean epoll;
+    private final EpollMode epollMode;
+    private final boolean reusePort;
+    private final int reusePortBinds;
+    private final boolean quickAck;
+    private final int busyPollMicros;
+
+    private NettyTransport(boolean epoll, EpollMode epollMode, boolean reusePort, int reusePortBinds, boolean quickAck, int busyPollMicros) {
+        this.epoll = epoll;
+        this.epollMode = epollMode;
+        this.reusePort = reusePort;
+        this.reusePortBinds = reusePortBinds;
+        this.quickAck = quickAck;
+        this.busyPollMicros = busyPollMicros;
+    }
+
+    /**
+     * 按照 rpc.properties 中的配置选择传输层
+     */
+    public static NettyTransport fromConfig() {
+        String type = RpcConfigUtil.getString(RpcConfigEnum.TRANSPORT, "auto");
+        boolean useEpoll;
+        if (NIO.equals(type)) {
+            useEpoll = false;
+        } else if (Epoll.isAvailable()) {
+            useEpoll = true;
+        } else {
+            useEpoll = false;
+            if (EPOLL.equals(type)) {
+                log.warn("epoll transport is not available, fall back to nio", Epoll.unavailabilityCause());
+            }
+        }
+        EpollMode epollMode = LEVEL_TRIGGERED.equals(RpcConfigUtil.getString(RpcConfigEnum.TRANSPORT_EPOLL_MODE, null))
+                ? EpollMode.LEVEL_TRIGGERED : EpollMode.EDGE_TRIGGERED;
+        int reusePortBinds = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_REUSE_PORT_BINDS, RuntimeUtil.cpus());
+        if (reusePortBinds <= 0) {
+            throw new IllegalArgumentException("illegal reuseport binds: " + reusePortBinds);
+        }
+        NettyTransport transport = new NettyTransport(useEpoll, epollMode,
+                RpcConfigUtil.getBoolean(RpcConfigEnum.TRANSPORT_REUSE_PORT, false), reusePortBinds,
+                RpcConfigUtil.getBoolean(RpcConfigEnum.TRANSPORT_QUICKACK, false),
+                RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_BUSY_POLL, 0));
+        log.info("use [{}] transport", transport);
+        return transport;
+    }
+
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+        return newEventLoopGroup(nThreads, null);
+    }
+
+    /**
+     * 和 NioEventLoopGroup 一样，nThreads 为 0 时使用 Netty 默认的线程数（CPU 核数的两倍）
+     */
+    public EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+        return epoll ? new EpollEventLoopGroup(nThreads, threadFactory) : new NioEventLoopGroup(nThreads, threadFactory);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> channelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 设置服务端监听 socket 和已接受连接的 epoll 选项
+     */
+    public void configure(ServerBootstrap serverBootstrap) {
+        if (!epoll) {
+            return;
+        }
+        serverBootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode)
+                .childOption(EpollChannelOption.EPOLL_MODE, epollMode);
+        if (reusePort) {
+            serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (quickAck) {
+            serverBootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+        }
+        if (busyPollMicros > 0) {
+            serverBootstrap.childOption(EpollChannelOption.SO_BUSY_POLL, busyPollMicros);
+        }
+    }
+
+    /**
+     * 设置客户端连接的 epoll 选项
+     */
+    public void configure(Bootstrap bootstrap) {
+        if (!epoll) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode);
+        if (quickAck) {
+            bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+        if (busyPollMicros > 0) {
+            bootstrap.option(EpollChannelOption.SO_BUSY_POLL, busyPollMicros);
+        }
+    }
+
+    /**
+     * 服务端要在同一个端口上绑定几个监听 socket，只有 epoll 并且开启了 SO_REUSEPORT 时大于 1
+     */
+    public int serverBinds() {
+        return epoll && reusePort ? reusePortBinds : 1;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    @Override
+    public String toString() {
+        return epoll ? EPOLL + "(mode=" + epollMode + ", reusePort=" + reusePort + ", quickAck=" + quickAck
+                + ", busyPoll=" + busyPollMicros + ")" : NIO;
+    }
+}
@@ -1,5 +1,7 @@
 package org.rpc.serialize;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import org.rpc.extension.SPI;
 
 /**
@@ -16,6 +18,17 @@ public interface Serializer {
      */
     byte[] serialize(Object obj);
 
+    /**
+     * 序列化，直接写入到编码器的 ByteBuf 中，省去中间的 byte[] 和拷贝。
+     * 默认实现退化为先序列化成字节数组再写入，具体的序列化类可以覆盖这个方法。
+     *
+     * @param obj 要序列化的对象
+     * @param out 写入的目标缓冲区，从 writerIndex 开始写
+     */
+    default void serialize(Object obj, ByteBuf out) {
+        out.writeBytes(serialize(obj));
+    }
+
     /**
      * 反序列化
      *
@@ -26,4 +39,19 @@ public interface Serializer {
      * @return 反序列化的对象
      */
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 反序列化，直接从解码器收到的帧（或它的切片）中读取，省去中间的 byte[]。
+     * 默认实现退化为先拷贝成字节数组再反序列化，具体的序列化类可以覆盖这个方法。
+     *
+     * @param in    序列化后的数据，读取所有可读字节
+     * @param clazz 目标类
+     * @param <T>   类的类型
+     * @return 反序列化的对象
+     */
+    default <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        byte[] bytes = ByteBufUtil.getBytes(in);
+        in.skipBytes(bytes.length);
+        return deserialize(bytes, clazz);
+    }
 }
@@ -1,6 +1,9 @@
 package org.rpc.serialize.hessian;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import org.rpc.exception.SerializeException;
 import org.rpc.serialize.Serializer;
 import java.io.ByteArrayInputStream;
@@ -23,6 +26,17 @@ public class HessianSerializer implements Serializer {
 
     }
 
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            HessianOutput hessianOutput = new HessianOutput(new ByteBufOutputStream(out));
+            hessianOutput.writeObject(obj);
+            hessianOutput.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
 
@@ -35,4 +49,15 @@ public class HessianSerializer implements Serializer {
         }
 
     }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        try {
+            HessianInput hessianInput = new HessianInput(new ByteBufInputStream(in));
+            Object o = hessianInput.readObject();
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
 }
@@ -3,6 +3,9 @@ package org.rpc.serialize.kyro;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.rpc.exception.SerializeException;
 import org.rpc.remoting.dto.RpcRequest;
@@ -19,11 +22,14 @@ import java.io.ByteArrayOutputStream;
 @Slf4j
 public class KryoSerializer implements Serializer {
 
+    private static final int BUFFER_SIZE = 1024 * 4;
+
     /**
      * https://juejin.cn/post/6993647089431347237
      * 因为Kryo线程不安全，所以用ThreadLocal + Kryo 解决线程不安全
      * ThreadLocal 是一种典型的牺牲空间来换取并发安全的方式，它会为每个线程都单独创建本线程专用的 kryo 对象。
      * 对于每条线程的每个 kryo 对象来说，都是顺序执行的，因此天然避免了并发安全问题。
+     * 用完之后不能 remove，否则每次调用都会重新创建 Kryo 并重新注册类，失去了 ThreadLocal 复用的意义。
      */
     private final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(() -> {
         Kryo kryo = new Kryo();
@@ -43,13 +49,23 @@ public class KryoSerializer implements Serializer {
             Kryo kryo = kryoThreadLocal.get();
             // Object->byte:将对象序列化为byte数组
             kryo.writeObject(output, obj);
-            kryoThreadLocal.remove();
             return output.toBytes();
         } catch (Exception e) {
             throw new SerializeException("Serialization failed");
         }
     }
 
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        // Output 只保留一块固定大小的缓冲区，写满后直接刷到 ByteBuf 里
+        try (Output output = new Output(new ByteBufOutputStream(out), BUFFER_SIZE)) {
+            Kryo kryo = kryoThreadLocal.get();
+            kryo.writeObject(output, obj);
+        } catch (Exception e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
         try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
@@ -57,7 +73,23 @@ public class KryoSerializer implements Serializer {
             Kryo kryo = kryoThreadLocal.get();
             // byte->Object:从byte数组中反序列化出对对象
             Object o = kryo.readObject(input, clazz);
-            kryoThreadLocal.remove();
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        // 堆内存直接包装底层数组；直接内存则按固定大小分块读取
+        try (Input input = in.hasArray()
+                ? new Input(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes())
+                : new Input(new ByteBufInputStream(in), BUFFER_SIZE)) {
+            Kryo kryo = kryoThreadLocal.get();
+            Object o = kryo.readObject(input, clazz);
+            if (in.hasArray()) {
+                in.skipBytes(in.readableBytes());
+            }
             return clazz.cast(o);
         } catch (Exception e) {
             throw new SerializeException("Deserialization failed");
@@ -1,40 +1,118 @@
 package org.rpc.serialize.protostuff;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
+import org.rpc.exception.SerializeException;
 import org.rpc.serialize.Serializer;
 
+import java.io.IOException;
+
 public class ProtostuffSerializer implements Serializer {
     /*
         避免每次序列化都重新申请空间
+        LinkedBuffer 不是线程安全的，编码器会在多个 EventLoop 线程上并发调用，所以每个线程一份
      */
-    private static final LinkedBuffer BUFFER = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    private static final ThreadLocal<LinkedBuffer> BUFFER = ThreadLocal.withInitial(
+            () -> LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+
+    /*
+        protostuff 的根对象必须是一个类，数组（比如只带方法编号的请求的参数数组）先包一层再序列化
+     */
+    private static final class ArrayHolder {
+        private Object[] values;
+    }
+
+    private static Object wrap(Object obj) {
+        if (obj instanceof Object[]) {
+            ArrayHolder holder = new ArrayHolder();
+            holder.values = (Object[]) obj;
+            return holder;
+        }
+        return obj;
+    }
+
+    //空数组序列化之后没有任何字段，反序列化回来是 null
+    private static Object[] unwrap(ArrayHolder holder) {
+        return holder.values == null ? new Object[0] : holder.values;
+    }
 
     /*
         序列化方法，把指定对象序列化成字节数组
      */
     @Override
     public byte[] serialize(Object obj) {
+        obj = wrap(obj);
         Class<?> clazz = obj.getClass();
         Schema schema = RuntimeSchema.getSchema(clazz);
+        LinkedBuffer buffer = BUFFER.get();
         byte[] bytes;
         try {
-            bytes = ProtostuffIOUtil.toByteArray(obj, schema, BUFFER);
+            bytes = ProtostuffIOUtil.toByteArray(obj, schema, buffer);
         } finally {
-            BUFFER.clear();
+            buffer.clear();
         }
         return bytes;
     }
+
+    /*
+        序列化方法，把指定对象直接写入 ByteBuf，LinkedBuffer 写满一段就刷到 ByteBuf 中
+     */
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        obj = wrap(obj);
+        Class<?> clazz = obj.getClass();
+        Schema schema = RuntimeSchema.getSchema(clazz);
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            ProtostuffIOUtil.writeTo(new ByteBufOutputStream(out), obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            buffer.clear();
+        }
+    }
     /*
         反序列化方法，将字节数组反序列化成指定Class类型
      */
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        if (clazz == Object[].class) {
+            return clazz.cast(unwrap(deserialize(bytes, ArrayHolder.class)));
+        }
         Schema<T> schema = RuntimeSchema.getSchema(clazz);
         T obj = schema.newMessage();
         ProtostuffIOUtil.mergeFrom(bytes, obj, schema);
         return obj;
     }
+
+    /*
+        反序列化方法，直接从 ByteBuf 中读取
+     */
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        if (clazz == Object[].class) {
+            return clazz.cast(unwrap(deserialize(in, ArrayHolder.class)));
+        }
+        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        T obj = schema.newMessage();
+        if (in.hasArray()) {
+            ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(), obj, schema);
+            in.skipBytes(in.readableBytes());
+            return obj;
+        }
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            ProtostuffIOUtil.mergeFrom(new ByteBufInputStream(in), obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            buffer.clear();
+        }
+        return obj;
+    }
 }
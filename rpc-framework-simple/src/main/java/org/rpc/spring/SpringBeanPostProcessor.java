@@ -2,8 +2,10 @@ package org.rpc.spring;
 
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.rpc.annotation.RpcMethod;
 import org.rpc.annotation.RpcReference;
 import org.rpc.annotation.RpcService;
+import org.rpc.config.RpcMethodConfig;
 import org.rpc.config.RpcServiceConfig;
 import org.rpc.extension.ExtensionLoader;
 import org.rpc.factory.SingletonFactory;
@@ -41,6 +43,11 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
             RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                     .group(rpcService.group())
                     .version(rpcService.version())
+                    .compress(rpcService.compress())
+                    .compressThreshold(rpcService.compressThreshold())
+                    .dispatch(rpcService.dispatch())
+                    .dispatchThreads(rpcService.dispatchThreads())
+                    .dispatchQueueSize(rpcService.dispatchQueueSize())
                     .service(bean).build();
             serviceProvider.publishService(rpcServiceConfig);
         }
@@ -56,7 +63,20 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
             if (rpcReference != null) {
                 RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                         .group(rpcReference.group())
-                        .version(rpcReference.version()).build();
+                        .version(rpcReference.version())
+                        .compress(rpcReference.compress())
+                        .compressThreshold(rpcReference.compressThreshold())
+                        .timeout(rpcReference.timeout()).build();
+                for (RpcMethod rpcMethod : rpcReference.methods()) {
+                    rpcServiceConfig.getMethods().put(rpcMethod.name(), RpcMethodConfig.builder()
+                            .name(rpcMethod.name())
+                            .timeout(rpcMethod.timeout())
+                            .cacheTtl(rpcMethod.cacheTtl())
+                            .cacheSize(rpcMethod.cacheSize())
+                            .hedge(rpcMethod.hedge())
+                            .hedgeDelay(rpcMethod.hedgeDelay())
+                            .orderBy(rpcMethod.orderBy()).build());
+                }
                 RpcClientProxy rpcClientProxy = new RpcClientProxy(rpcClient, rpcServiceConfig);
                 Object clientProxy = rpcClientProxy.getProxy(declaredField.getType());
                 declaredField.setAccessible(true);
@@ -0,0 +1,158 @@
+package org.rpc.compress.gzip;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.rpc.compress.Compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GzipCompressTest {
+    private static final int[] LENGTHS = {0, 1, 1000, 65535, 65536, 65537, 200_000};
+    private static final int MAX_DECOMPRESSED_LENGTH = 1 << 20;
+
+    private final Compress compress = new GzipCompress(Deflater.DEFAULT_COMPRESSION, MAX_DECOMPRESSED_LENGTH);
+
+    @Test
+    void roundTripByteArray() {
+        for (int length : LENGTHS) {
+            for (byte[] bytes : new byte[][]{compressible(length), random(length)}) {
+                assertArrayEquals(bytes, compress.decompress(compress.compress(bytes)), "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void roundTripHeapBuffer() {
+        for (int length : LENGTHS) {
+            byte[] bytes = compressible(length);
+            ByteBuf in = Unpooled.buffer(length + 16).writeZero(8).writeBytes(bytes).slice(3, length + 5).skipBytes(5);
+            ByteBuf compressed = Unpooled.buffer();
+            compress.compress(in, compressed);
+            assertEquals(0, in.readableBytes());
+            ByteBuf out = Unpooled.buffer();
+            compress.decompress(compressed, out);
+            assertEquals(0, compressed.readableBytes());
+            assertArrayEquals(bytes, toBytes(out), "length " + length);
+        }
+    }
+
+    @Test
+    void roundTripDirectBuffer() {
+        for (int length : LENGTHS) {
+            byte[] bytes = random(length);
+            ByteBuf in = Unpooled.directBuffer(length).writeBytes(bytes);
+            ByteBuf compressed = Unpooled.directBuffer();
+            ByteBuf out = Unpooled.directBuffer();
+            try {
+                compress.compress(in, compressed);
+                compress.decompress(compressed, out);
+                assertArrayEquals(bytes, toBytes(out), "length " + length);
+            } finally {
+                in.release();
+                compressed.release();
+                out.release();
+            }
+        }
+    }
+
+    @Test
+    void compatibleWithJdkGzip() throws IOException {
+        byte[] bytes = compressible(65537);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compress.compress(bytes)))) {
+            assertArrayEquals(bytes, readAll(in));
+        }
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(jdk)) {
+            out.write(bytes);
+        }
+        assertArrayEquals(bytes, compress.decompress(jdk.toByteArray()));
+    }
+
+    @Test
+    void rejectsIllegalLengthInTrailer() {
+        byte[] compressed = compress.compress(compressible(1000));
+        for (int length : new int[]{-1, MAX_DECOMPRESSED_LENGTH + 1, Integer.MAX_VALUE}) {
+            byte[] corrupt = withTrailerLength(compressed, length);
+            RuntimeException e = assertThrows(RuntimeException.class, () -> compress.decompress(corrupt));
+            assertEquals("illegal gzip length " + length, e.getCause().getMessage());
+        }
+        // 尾部的长度比实际解压出来的短，解压到超过它时就停止
+        RuntimeException e = assertThrows(RuntimeException.class, () -> compress.decompress(withTrailerLength(compressed, 999)));
+        assertEquals("corrupt gzip trailer", e.getCause().getMessage());
+    }
+
+    @Test
+    void acceptsLengthUpToTheLimit() {
+        Compress limited = new GzipCompress(Deflater.DEFAULT_COMPRESSION, 65536);
+        byte[] bytes = compressible(65536);
+        assertArrayEquals(bytes, limited.decompress(limited.compress(bytes)));
+        assertThrows(RuntimeException.class, () -> limited.decompress(limited.compress(compressible(65537))));
+    }
+
+    @Test
+    void rejectsCorruptData() {
+        byte[] compressed = compress.compress(compressible(65537));
+        byte[] badCrc = compressed.clone();
+        badCrc[badCrc.length - 8] ^= 1;
+        assertThrows(RuntimeException.class, () -> compress.decompress(badCrc));
+        assertThrows(RuntimeException.class, () -> compress.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+        assertThrows(RuntimeException.class, () -> compress.decompress(new byte[]{1, 2, 3}));
+        byte[] notGzip = compressed.clone();
+        notGzip[0] = 0;
+        assertThrows(RuntimeException.class, () -> compress.decompress(notGzip));
+    }
+
+    @Test
+    void rejectsIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new GzipCompress(10));
+        assertThrows(IllegalArgumentException.class, () -> new GzipCompress(Deflater.DEFAULT_COMPRESSION, 0));
+    }
+
+    private static byte[] withTrailerLength(byte[] compressed, int length) {
+        byte[] corrupt = compressed.clone();
+        Unpooled.wrappedBuffer(corrupt).setIntLE(corrupt.length - 4, length);
+        return corrupt;
+    }
+
+    private static byte[] readAll(GZIPInputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compressible(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 7 + (i / 4096) % 3);
+        }
+        return bytes;
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,137 @@
+package org.rpc.compress.lz4;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.rpc.compress.Compress;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Lz4CompressTest {
+    /**
+     * 覆盖空数据、不足一个最小匹配的数据，以及 64 KB（匹配的最大距离）前后的长度
+     */
+    private static final int[] LENGTHS = {0, 1, 12, 13, 1000, 65535, 65536, 65537, 200_000};
+    private static final int MAX_DECOMPRESSED_LENGTH = 1 << 20;
+
+    private final Compress compress = new Lz4Compress(MAX_DECOMPRESSED_LENGTH);
+
+    @Test
+    void roundTripByteArray() {
+        for (int length : LENGTHS) {
+            for (byte[] bytes : new byte[][]{compressible(length), random(length)}) {
+                assertArrayEquals(bytes, compress.decompress(compress.compress(bytes)), "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void roundTripHeapBuffer() {
+        for (int length : LENGTHS) {
+            byte[] bytes = compressible(length);
+            // 切片的 arrayOffset 不为 0，readerIndex 也不从 0 开始
+            ByteBuf in = Unpooled.buffer(length + 16).writeZero(8).writeBytes(bytes).slice(3, length + 5).skipBytes(5);
+            ByteBuf compressed = Unpooled.buffer();
+            compress.compress(in, compressed);
+            assertEquals(0, in.readableBytes());
+            assertArrayEquals(compress.compress(bytes), toBytes(compressed), "length " + length);
+            ByteBuf out = Unpooled.buffer();
+            compress.decompress(compressed, out);
+            assertEquals(0, compressed.readableBytes());
+            assertArrayEquals(bytes, toBytes(out), "length " + length);
+        }
+    }
+
+    @Test
+    void roundTripDirectBuffer() {
+        for (int length : LENGTHS) {
+            byte[] bytes = random(length);
+            ByteBuf in = Unpooled.directBuffer(length).writeBytes(bytes);
+            ByteBuf compressed = Unpooled.directBuffer();
+            ByteBuf out = Unpooled.directBuffer();
+            try {
+                compress.compress(in, compressed);
+                compress.decompress(compressed, out);
+                assertArrayEquals(bytes, toBytes(out), "length " + length);
+            } finally {
+                in.release();
+                compressed.release();
+                out.release();
+            }
+        }
+    }
+
+    @Test
+    void compressesRepeatedData() {
+        byte[] bytes = compressible(65537);
+        assertTrue(compress.compress(bytes).length < bytes.length / 4);
+    }
+
+    @Test
+    void rejectsIllegalOriginalLength() {
+        byte[] compressed = compress.compress(compressible(1000));
+        for (int length : new int[]{-1, Integer.MIN_VALUE, MAX_DECOMPRESSED_LENGTH + 1, Integer.MAX_VALUE}) {
+            byte[] corrupt = withOriginalLength(compressed, length);
+            RuntimeException e = assertThrows(RuntimeException.class, () -> compress.decompress(corrupt));
+            assertEquals("lz4 decompress error, illegal length " + length, e.getMessage());
+            assertThrows(RuntimeException.class, () -> compress.decompress(Unpooled.wrappedBuffer(corrupt), Unpooled.buffer()));
+        }
+    }
+
+    @Test
+    void acceptsOriginalLengthUpToTheLimit() {
+        Compress limited = new Lz4Compress(65536);
+        byte[] bytes = compressible(65536);
+        assertArrayEquals(bytes, limited.decompress(limited.compress(bytes)));
+        assertThrows(RuntimeException.class, () -> limited.decompress(limited.compress(compressible(65537))));
+    }
+
+    @Test
+    void rejectsCorruptBlock() {
+        byte[] compressed = compress.compress(compressible(65537));
+        // 原始长度和数据对不上
+        assertThrows(RuntimeException.class, () -> compress.decompress(withOriginalLength(compressed, 65536)));
+        assertThrows(RuntimeException.class, () -> compress.decompress(withOriginalLength(compressed, 65538)));
+        // 数据被截断
+        assertThrows(RuntimeException.class, () -> compress.decompress(Arrays.copyOf(compressed, compressed.length - 1)));
+        assertThrows(RuntimeException.class, () -> compress.decompress(new byte[3]));
+        assertThrows(RuntimeException.class, () -> compress.decompress(Unpooled.wrappedBuffer(new byte[3]), Unpooled.buffer()));
+    }
+
+    @Test
+    void rejectsIllegalMaxDecompressedLength() {
+        assertThrows(IllegalArgumentException.class, () -> new Lz4Compress(0));
+    }
+
+    private static byte[] withOriginalLength(byte[] compressed, int length) {
+        byte[] corrupt = compressed.clone();
+        Unpooled.wrappedBuffer(corrupt).setInt(0, length);
+        return corrupt;
+    }
+
+    private static byte[] compressible(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 7 + (i / 4096) % 3);
+        }
+        return bytes;
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,192 @@
+package org.rpc.remoting.transport.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.rpc.enums.CompressTypeEnum;
+import org.rpc.enums.SerializationTypeEnum;
+import org.rpc.remoting.constants.RpcConstants;
+import org.rpc.remoting.dto.RpcMessage;
+import org.rpc.remoting.dto.RpcRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RpcMessageCodecTest {
+    private static final byte[] CODECS = {SerializationTypeEnum.KYRO.getCode(), SerializationTypeEnum.PROTOSTUFF.getCode(),
+            SerializationTypeEnum.HESSIAN.getCode()};
+    private static final byte[] COMPRESSES = {CompressTypeEnum.NONE.getCode(), CompressTypeEnum.GZIP.getCode(),
+            CompressTypeEnum.LZ4.getCode()};
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    void v1Request() {
+        for (byte codec : CODECS) {
+            for (byte compress : COMPRESSES) {
+                RpcMessage sent = requestMessage(RpcConstants.VERSION_V1, codec, compress, 1000);
+                sent.setRequestId(0x1_2345_6789L);
+                RpcMessage received = roundTrip(sent);
+                assertEquals(RpcConstants.VERSION_V1, received.getVersion());
+                // v1 只传输请求编号的低 32 位，也不传输头部扩展
+                assertEquals(0x2345_6789L, received.getRequestId());
+                assertEquals(0, received.getDeadline());
+                assertNull(received.getTraceId());
+                assertNull(received.getAttachments());
+                assertRequest((RpcRequest) sent.getData(), (RpcRequest) received.getData());
+            }
+        }
+    }
+
+    @Test
+    void v2RequestWithExtensions() {
+        for (byte codec : CODECS) {
+            for (byte compress : COMPRESSES) {
+                RpcMessage sent = requestMessage(RpcConstants.VERSION_V2, codec, compress, 1000);
+                sent.setRequestId(1L << 40);
+                withExtensions(sent);
+                RpcMessage received = roundTrip(sent);
+                assertEquals(RpcConstants.VERSION_V2, received.getVersion());
+                assertEquals(1L << 40, received.getRequestId());
+                assertExtensions(sent, received);
+                assertRequest((RpcRequest) sent.getData(), (RpcRequest) received.getData());
+            }
+        }
+    }
+
+    @Test
+    void v2RequestWithMethodId() {
+        for (byte codec : CODECS) {
+            RpcMessage sent = requestMessage(RpcConstants.VERSION_V2, codec, CompressTypeEnum.GZIP.getCode(), 10);
+            sent.setRequestId(-1L);
+            withExtensions(sent);
+            // 只带方法编号的请求，消息体只有参数数组
+            sent.setMethodId(300);
+            sent.setOrderKey(Integer.MIN_VALUE);
+            sent.setData(new Object[]{"hello", 42});
+            RpcMessage received = roundTrip(sent);
+            assertEquals(-1L, received.getRequestId());
+            assertEquals(300, received.getMethodId());
+            assertEquals(Integer.MIN_VALUE, received.getOrderKey());
+            assertExtensions(sent, received);
+            RpcRequest request = (RpcRequest) received.getData();
+            assertEquals(300, request.getMethodId());
+            assertEquals(Integer.MIN_VALUE, request.getOrderKey());
+            assertNull(request.getMethodName());
+            assertArrayEquals(new Object[]{"hello", 42}, request.getParameters());
+        }
+    }
+
+    @Test
+    void heartbeat() {
+        for (byte version : new byte[]{RpcConstants.VERSION_V1, RpcConstants.VERSION_V2}) {
+            RpcMessage sent = new RpcMessage();
+            sent.setVersion(version);
+            sent.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
+            sent.setCodec(SerializationTypeEnum.PROTOSTUFF.getCode());
+            sent.setRequestId(7);
+            sent.setData(RpcConstants.PING);
+            RpcMessage received = roundTrip(sent);
+            assertEquals(version, received.getVersion());
+            assertEquals(RpcConstants.HEARTBEAT_REQUEST_TYPE, received.getMessageType());
+            assertEquals(7, received.getRequestId());
+            assertEquals(RpcConstants.PING, received.getData());
+        }
+    }
+
+    @Test
+    void framesSplitAcrossReads() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+        byte[] versions = {RpcConstants.VERSION_V1, RpcConstants.VERSION_V2, RpcConstants.VERSION_V2};
+        for (int i = 0; i < versions.length; i++) {
+            RpcMessage sent = requestMessage(versions[i], SerializationTypeEnum.KYRO.getCode(), CompressTypeEnum.LZ4.getCode(), 300_000);
+            sent.setRequestId(i);
+            encoder.writeOutbound(sent);
+        }
+        ByteBuf frames = encoder.alloc().buffer();
+        for (ByteBuf frame; (frame = encoder.readOutbound()) != null; ) {
+            frames.writeBytes(frame);
+            frame.release();
+        }
+        // 每次只送进来 7 个字节，帧头和变长的帧长度都会被拆开
+        while (frames.isReadable()) {
+            decoder.writeInbound(frames.readRetainedSlice(Math.min(7, frames.readableBytes())));
+        }
+        frames.release();
+        for (int i = 0; i < versions.length; i++) {
+            RpcMessage received = decoder.readInbound();
+            assertNotNull(received);
+            assertEquals(versions[i], received.getVersion());
+            assertEquals(i, received.getRequestId());
+            assertEquals(300_000, ((String) ((RpcRequest) received.getData()).getParameters()[0]).length());
+        }
+        assertNull(decoder.readInbound());
+    }
+
+    private static RpcMessage roundTrip(RpcMessage sent) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder());
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+        assertTrue(encoder.writeOutbound(sent));
+        ByteBuf frame = encoder.readOutbound();
+        assertTrue(decoder.writeInbound(frame));
+        RpcMessage received = decoder.readInbound();
+        assertEquals(sent.getMessageType(), received.getMessageType());
+        assertEquals(sent.getCodec(), received.getCodec());
+        return received;
+    }
+
+    private static RpcMessage requestMessage(byte version, byte codec, byte compress, int messageLength) {
+        StringBuilder message = new StringBuilder(messageLength);
+        for (int i = 0; i < messageLength; i++) {
+            message.append((char) ('a' + i * 7 % 26));
+        }
+        RpcRequest request = RpcRequest.builder()
+                .interfaceName("org.rpc.HelloService")
+                .methodName("hello")
+                .parameters(new Object[]{message.toString()})
+                .paramTypes(new Class<?>[]{String.class})
+                .group("test1")
+                .version("version1")
+                .build();
+        return RpcMessage.builder()
+                .version(version)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .codec(codec)
+                .compress(compress)
+                .compressThreshold(256)
+                .data(request)
+                .build();
+    }
+
+    private static void withExtensions(RpcMessage message) {
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put("tenant", "t-1");
+        attachments.put("ключ", "значение");
+        attachments.put("", "");
+        message.setDeadline(System.currentTimeMillis() + TIMEOUT_MILLIS);
+        message.setTraceId("trace-42");
+        message.setAttachments(attachments);
+    }
+
+    private static void assertExtensions(RpcMessage sent, RpcMessage received) {
+        // 截止时间按剩余的毫秒数传输，解码时换算回本地时间
+        long remaining = received.getDeadline() - System.currentTimeMillis();
+        assertTrue(remaining > TIMEOUT_MILLIS - 1000 && remaining <= TIMEOUT_MILLIS, "remaining " + remaining);
+        assertEquals(sent.getTraceId(), received.getTraceId());
+        assertEquals(sent.getAttachments(), received.getAttachments());
+    }
+
+    private static void assertRequest(RpcRequest sent, RpcRequest received) {
+        assertEquals(sent.getInterfaceName(), received.getInterfaceName());
+        assertEquals(sent.getMethodName(), received.getMethodName());
+        assertArrayEquals(sent.getParameters(), received.getParameters());
+        assertArrayEquals(sent.getParamTypes(), received.getParamTypes());
+        assertEquals(sent.getRpcServiceName(), received.getRpcServiceName());
+    }
+}
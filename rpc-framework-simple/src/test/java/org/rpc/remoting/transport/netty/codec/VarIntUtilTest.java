@@ -0,0 +1,70 @@
+package org.rpc.remoting.transport.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VarIntUtilTest {
+
+    @Test
+    void varInt32RoundTrip() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28,
+                Integer.MAX_VALUE, -1, -128, Integer.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 5, 5, 5};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuf buf = Unpooled.buffer();
+            VarIntUtil.writeVarInt32(buf, values[i]);
+            assertEquals(sizes[i], buf.readableBytes(), "size of " + values[i]);
+            assertEquals(sizes[i], VarIntUtil.varInt32Size(values[i]), "varInt32Size of " + values[i]);
+            assertEquals(values[i], VarIntUtil.readVarInt32(buf));
+            assertEquals(0, buf.readableBytes());
+        }
+    }
+
+    @Test
+    void varInt64RoundTrip() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, 1L << 35, (1L << 56) - 1, 1L << 56,
+                (1L << 63) - 1, -1, Integer.MIN_VALUE, Long.MIN_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 5, 6, 8, 9, 9, 10, 10, 10};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuf buf = Unpooled.buffer();
+            VarIntUtil.writeVarInt64(buf, values[i]);
+            assertEquals(sizes[i], buf.readableBytes(), "size of " + values[i]);
+            assertEquals(sizes[i], VarIntUtil.varInt64Size(values[i]), "varInt64Size of " + values[i]);
+            assertEquals(values[i], VarIntUtil.readVarInt64(buf));
+            assertEquals(0, buf.readableBytes());
+        }
+    }
+
+    @Test
+    void encodingMatchesProtobuf() {
+        ByteBuf buf = Unpooled.buffer();
+        VarIntUtil.writeVarInt32(buf, 300);
+        assertEquals(0xAC, buf.readUnsignedByte());
+        assertEquals(0x02, buf.readUnsignedByte());
+    }
+
+    @Test
+    void rejectsMalformedVarInt() {
+        assertThrows(CorruptedFrameException.class, () -> VarIntUtil.readVarInt32(continuationBytes(5)));
+        assertThrows(CorruptedFrameException.class, () -> VarIntUtil.readVarInt64(continuationBytes(10)));
+    }
+
+    @Test
+    void truncatedVarIntIsNotReadable() {
+        assertThrows(IndexOutOfBoundsException.class, () -> VarIntUtil.readVarInt32(continuationBytes(2)));
+        assertThrows(IndexOutOfBoundsException.class, () -> VarIntUtil.readVarInt64(continuationBytes(2)));
+    }
+
+    private static ByteBuf continuationBytes(int count) {
+        ByteBuf buf = Unpooled.buffer(count);
+        for (int i = 0; i < count; i++) {
+            buf.writeByte(0xFF);
+        }
+        return buf;
+    }
+}